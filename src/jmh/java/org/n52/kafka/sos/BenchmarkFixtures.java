@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.n52.kafka.sos.model.Feature;
+import org.n52.kafka.sos.model.ObservableProperty;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+
+/**
+ * Test data of the benchmarks, derived from the fixtures in
+ * <code>src/test/resources</code>.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+final class BenchmarkFixtures {
+
+    private static final ChangeEventDecoder DECODER = new ChangeEventDecoder();
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] resource(String name) throws IOException {
+        return Resources.toByteArray(BenchmarkFixtures.class.getResource(name));
+    }
+
+    static <T> T row(String name, ChangeEventDecoder.RowParser<T> parser) throws IOException {
+        return DECODER.decode(resource(name), parser).getAfter();
+    }
+
+    /**
+     * Creates a cache holding the metadata of the fixtures and the given
+     * number of observations, spread over one series per 100 observations.
+     * Observation ids start at 1.
+     *
+     * @param observations the number of observations
+     * @return the cache
+     * @throws IOException if the fixtures cannot be read
+     */
+    static MetadataCache cache(int observations) throws IOException {
+        MetadataCache cache = new MetadataCache(new ObservationStore(observations, 0, TimeUnit.SECONDS, false));
+        cache.restore(row("/procedure1.json", Procedure::fromJson));
+        cache.restore(row("/offering1.json", Offering::fromJson));
+        cache.restore(row("/feature1.json", Feature::fromJson));
+        cache.restore(row("/unit1.json", Unit::fromJson));
+        cache.restore(new ObservableProperty("http://www.52north.org/test/observableProperty/1", "test", 1));
+
+        Series template = row("/series1.json", Series::fromJson);
+        byte[] observationEvent = resource("/observation1.json");
+        Observation observation = DECODER.decode(observationEvent,
+                Observation.parserFor(DECODER.readColumnTypes(observationEvent))).getAfter();
+        int seriesCount = Math.max(1, observations / 100);
+        for (int i = 1; i <= seriesCount; i++) {
+            cache.restore(new Series(template.getFeatureId(), template.getObservablePropertyId(),
+                    template.getProcedureId(), template.getOfferingId(), 1, i));
+        }
+        long time = observation.getResultTime();
+        for (int i = 1; i <= observations; i++) {
+            cache.restore(new Observation(1 + i % seriesCount, time, time, time, i));
+        }
+        return cache;
+    }
+
+}
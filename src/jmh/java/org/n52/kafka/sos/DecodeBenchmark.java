@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.TimePrecision;
+import org.n52.kafka.sos.model.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of Debezium change events, comparing the tree model
+ * (<code>fromJson(JsonNode)</code>) with the streaming decoder.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DecodeBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder(mapper.getFactory());
+
+    private byte[] value;
+    private byte[] observation;
+    private byte[] series;
+    private ChangeEventDecoder.RowParser<Observation> observationParser;
+
+    @Setup
+    public void setup() throws IOException {
+        value = BenchmarkFixtures.resource("/value1.json");
+        observation = BenchmarkFixtures.resource("/observation1.json");
+        series = BenchmarkFixtures.resource("/series1.json");
+        observationParser = Observation.parserFor(decoder.readColumnTypes(observation));
+    }
+
+    @Benchmark
+    public Value valueTree() throws IOException {
+        return Value.fromJson(after(value));
+    }
+
+    @Benchmark
+    public ChangeEvent<Value> valueStreaming() throws IOException {
+        return decoder.decode(value, Value::fromJson);
+    }
+
+    @Benchmark
+    public Observation observationTree() throws IOException {
+        return Observation.fromJson(after(observation), TimePrecision.NANOS);
+    }
+
+    @Benchmark
+    public ChangeEvent<Observation> observationStreaming() throws IOException {
+        return decoder.decode(observation, observationParser);
+    }
+
+    @Benchmark
+    public ChangeEvent<Series> seriesStreaming() throws IOException {
+        return decoder.decode(series, Series::fromJson);
+    }
+
+    private JsonNode after(byte[] data) throws IOException {
+        return mapper.readTree(data).path("payload").path("after");
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.Random;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link MeasurementObservation#fromValue(Value, MetadataCache)} against
+ * caches of growing size. Values refer to random observations, so larger
+ * caches also show the effect of cache misses of the CPU.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EnrichmentBenchmark {
+
+    private static final int VALUES = 4096;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int observations;
+
+    private MetadataCache cache;
+    private final Value[] values = new Value[VALUES];
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        cache = BenchmarkFixtures.cache(observations);
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = new Value(1 + random.nextInt(observations), random.nextDouble());
+        }
+    }
+
+    @Benchmark
+    public MeasurementObservation fromValue() throws ObservationNotAvailableException {
+        Value value = values[next++ & (VALUES - 1)];
+        return MeasurementObservation.fromValue(value, cache);
+    }
+
+}
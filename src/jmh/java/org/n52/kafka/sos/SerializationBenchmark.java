@@ -0,0 +1,63 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import org.n52.kafka.sos.codec.MeasurementCodec;
+import org.n52.kafka.sos.codec.MeasurementCodecs;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of a measurement for the offering topics with each of the
+ * bundled codecs.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark {
+
+    @Param({"json", "smile", "cbor", "avro"})
+    public String codecName;
+
+    private MeasurementCodec codec;
+    private MeasurementObservation measurement;
+
+    @Setup
+    public void setup() throws IOException, ObservationNotAvailableException {
+        codec = new MeasurementCodecs(new Settings(null)).forName(codecName);
+        measurement = MeasurementObservation.fromValue(
+                BenchmarkFixtures.row("/value1.json", Value::fromJson), BenchmarkFixtures.cache(1));
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(measurement);
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the enrichment engine selected by the <code>engine</code> setting:
+ * <code>consumer</code> ({@link KafkaSosConsumer}, the default) or
+ * <code>streams</code> ({@link KafkaSosStreams}). The settings are read from
+ * the file given as the first argument or, without arguments, from the
+ * bundled <code>settings.properties</code>.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class Application {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Application.class.getName());
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Properties props = new Properties();
+        try (InputStream in = args.length > 0
+                ? Files.newInputStream(Paths.get(args[0]))
+                : Application.class.getResourceAsStream("/settings.properties")) {
+            props.load(in);
+        }
+
+        Settings settings = new Settings(props);
+        String engine = settings.getString("engine", "consumer");
+        String groupId = settings.getString("groupId", "sos-consumer");
+        String bootstrapServers = settings.getString("bootstrapServers", "localhost:9092");
+        String kafkaConnectRestBaseUrl = settings.getString("kafkaConnectRestBaseUrl", "http://localhost:8083/");
+        LOG.info("Starting the {} engine as '{}'", engine, groupId);
+
+        switch (engine) {
+            case "consumer":
+                runConsumer(new KafkaSosConsumer(0, groupId, bootstrapServers, kafkaConnectRestBaseUrl, props));
+                break;
+            case "streams":
+                runStreams(new KafkaSosStreams(groupId, bootstrapServers, kafkaConnectRestBaseUrl, props));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    private static void runConsumer(KafkaSosConsumer consumer) throws InterruptedException {
+        Thread thread = new Thread(consumer, "sos-consumer");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            consumer.shutdown();
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        thread.start();
+        thread.join();
+    }
+
+    private static void runStreams(KafkaSosStreams streams) throws InterruptedException {
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            streams.shutdown();
+            stopped.countDown();
+        }));
+        streams.run();
+        stopped.await();
+    }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.n52.kafka.sos.model.BaseEntity;
+import org.n52.kafka.sos.model.Feature;
+import org.n52.kafka.sos.model.ObservableProperty;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local, Smile-encoded copy of the {@link MetadataCache} together with the
+ * consumer offsets the copy corresponds to. A snapshot is written as a
+ * whole to a temporary file that replaces the previous snapshot
+ * atomically, so a crash while writing never leaves a torn file behind.
+ * The snapshot is read through a memory mapping without copying the file
+ * to the heap first.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class CacheSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheSnapshot.class.getName());
+
+    /*
+     * version 2 holds the observation times in microseconds
+     */
+    private static final int VERSION = 2;
+
+    private static final Map<String, ChangeEventDecoder.RowParser<? extends BaseEntity>> ROW_PARSERS
+            = new HashMap<>();
+
+    static {
+        ROW_PARSERS.put("observations", Observation::fromJson);
+        ROW_PARSERS.put("series", Series::fromJson);
+        ROW_PARSERS.put("procedures", Procedure::fromJson);
+        ROW_PARSERS.put("offerings", Offering::fromJson);
+        ROW_PARSERS.put("observableProperties", ObservableProperty::fromJson);
+        ROW_PARSERS.put("units", Unit::fromJson);
+        ROW_PARSERS.put("features", Feature::fromJson);
+    }
+
+    private final Path file;
+    private final SmileFactory factory = new SmileFactory();
+
+    public CacheSnapshot(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param cache the cache to write
+     * @param offsets the positions of the consumer up to which all records are contained in the cache
+     * @throws IOException if the snapshot could not be written
+     */
+    public void write(MetadataCache cache, Map<TopicPartition, Long> offsets) throws IOException {
+        long start = System.currentTimeMillis();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 65536);
+                JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeNumberField("version", VERSION);
+            generator.writeArrayFieldStart("offsets");
+            for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("topic", offset.getKey().topic());
+                generator.writeNumberField("partition", offset.getKey().partition());
+                generator.writeNumberField("offset", offset.getValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            writeRows(generator, "procedures", cache.getProcedures().values(), Procedure::toJson);
+            writeRows(generator, "offerings", cache.getOfferings().values(), Offering::toJson);
+            writeRows(generator, "observableProperties", cache.getObservableProperties().values(),
+                    ObservableProperty::toJson);
+            writeRows(generator, "units", cache.getUnits().values(), Unit::toJson);
+            writeRows(generator, "features", cache.getFeatures().values(), Feature::toJson);
+            writeRows(generator, "series", cache.getSeries().values(), Series::toJson);
+            writeRows(generator, "observations", cache.getObservations().values(), Observation::toJson);
+            generator.writeEndObject();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Wrote cache snapshot {} ({} bytes) in {} ms", file, Files.size(file),
+                System.currentTimeMillis() - start);
+    }
+
+    private static <T> void writeRows(JsonGenerator generator, String name, Collection<T> rows,
+            ChangeEventSerde.RowWriter<T> writer) throws IOException {
+        generator.writeArrayFieldStart(name);
+        for (T row : rows) {
+            writer.write(row, generator);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Restores the contents of the snapshot into the cache.
+     *
+     * @param cache the cache to restore into
+     * @return the consumer offsets the snapshot corresponds to, empty if there is no snapshot
+     * @throws IOException if the snapshot could not be read
+     */
+    public Map<TopicPartition, Long> load(MetadataCache cache) throws IOException {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        if (!Files.exists(file)) {
+            LOG.info("No cache snapshot at {}", file);
+            return offsets;
+        }
+
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try (JsonParser parser = factory.createParser(new ByteBufferBackedInputStream(buffer))) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Invalid cache snapshot " + file);
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    ChangeEventDecoder.RowParser<? extends BaseEntity> rowParser = ROW_PARSERS.get(field);
+                    if ("version".equals(field) && parser.getIntValue() != VERSION) {
+                        throw new IOException("Unsupported cache snapshot version " + parser.getIntValue());
+                    }
+                    else if ("offsets".equals(field)) {
+                        readOffsets(parser, offsets);
+                    }
+                    else if (rowParser != null) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            cache.restore(rowParser.parse(parser));
+                            rows++;
+                        }
+                    }
+                    else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        LOG.info("Restored {} rows from cache snapshot {} in {} ms", rows, file,
+                System.currentTimeMillis() - start);
+        return offsets;
+    }
+
+    private static void readOffsets(JsonParser parser, Map<TopicPartition, Long> offsets) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String topic = null;
+            int partition = 0;
+            long offset = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "topic":
+                        topic = parser.getValueAsString();
+                        break;
+                    case "partition":
+                        partition = parser.getValueAsInt();
+                        break;
+                    case "offset":
+                        offset = parser.getValueAsLong();
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+            offsets.put(new TopicPartition(topic, partition), offset);
+        }
+    }
+
+}
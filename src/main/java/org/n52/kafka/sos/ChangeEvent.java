@@ -0,0 +1,56 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A decoded Debezium change event, holding the row state after the change.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ * @param <T> the type of the decoded row
+ */
+public class ChangeEvent<T> {
+
+    private final T after;
+    private final boolean snapshot;
+
+    public ChangeEvent(T after, boolean snapshot) {
+        this.after = after;
+        this.snapshot = snapshot;
+    }
+
+    public T getAfter() {
+        return after;
+    }
+
+    /**
+     * @return true if the event was emitted during an initial snapshot of the database
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("after", after)
+                .add("snapshot", snapshot)
+                .toString();
+    }
+
+}
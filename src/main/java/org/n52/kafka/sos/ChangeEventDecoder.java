@@ -0,0 +1,282 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming decoder for Debezium change event envelopes. In contrast to
+ * reading the whole envelope into a tree, only <code>payload.after</code>
+ * and <code>payload.source.snapshot</code> are evaluated. All other
+ * members (most notably the <code>schema</code> block) are skipped
+ * without materializing them.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ChangeEventDecoder {
+
+    private final JsonFactory factory;
+
+    public ChangeEventDecoder() {
+        this(new JsonFactory());
+    }
+
+    public ChangeEventDecoder(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param <T> the type of the decoded row
+     * @param json the serialized envelope
+     * @param rowParser the parser for the <code>after</code> row
+     * @return the decoded event or null if the envelope does not carry an <code>after</code> row
+     * @throws IOException if the envelope is not valid JSON
+     */
+    public <T> ChangeEvent<T> decode(String json, RowParser<T> rowParser) throws IOException {
+        if (json == null) {
+            return null;
+        }
+        try (JsonParser parser = factory.createParser(json)) {
+            return decode(parser, rowParser);
+        }
+    }
+
+    /**
+     * @param <T> the type of the decoded row
+     * @param data the UTF-8 encoded envelope
+     * @param rowParser the parser for the <code>after</code> row
+     * @return the decoded event or null if the envelope does not carry an <code>after</code> row
+     * @throws IOException if the envelope is not valid JSON
+     */
+    public <T> ChangeEvent<T> decode(byte[] data, RowParser<T> rowParser) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        try (JsonParser parser = factory.createParser(data)) {
+            return decode(parser, rowParser);
+        }
+    }
+
+    /**
+     * Reads the semantic types of the columns from the schema of an
+     * envelope, e.g. <code>io.debezium.time.MicroTimestamp</code> for a
+     * timestamp column.
+     *
+     * @param data the UTF-8 encoded envelope
+     * @return the semantic type by column name. Columns without semantic type are omitted, the map is
+     * empty if the envelope has no schema
+     * @throws IOException if the envelope is not valid JSON
+     */
+    public Map<String, String> readColumnTypes(byte[] data) throws IOException {
+        if (data == null) {
+            return Collections.emptyMap();
+        }
+        try (JsonParser parser = factory.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Collections.emptyMap();
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("schema".equals(field) && token == JsonToken.START_OBJECT) {
+                    return readEnvelopeSchema(parser);
+                }
+                parser.skipChildren();
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Locates the schema of an envelope without reading it, e.g. to detect
+     * a changed schema by comparing the bytes of consecutive envelopes.
+     *
+     * @param data the UTF-8 encoded envelope
+     * @return the offset of the first byte after the <code>schema</code> object, -1 if the envelope has no schema
+     * @throws IOException if the envelope is not valid JSON
+     */
+    public int findSchemaEnd(byte[] data) throws IOException {
+        if (data == null) {
+            return -1;
+        }
+        try (JsonParser parser = factory.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return -1;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                parser.skipChildren();
+                if ("schema".equals(field) && token == JsonToken.START_OBJECT) {
+                    return (int) parser.getCurrentLocation().getByteOffset();
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the struct of the <code>after</code> field in the schema of the envelope.
+     */
+    private Map<String, String> readEnvelopeSchema(JsonParser parser) throws IOException {
+        Map<String, String> result = Collections.emptyMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("fields".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    SchemaField envelopeField = readSchemaField(parser, true);
+                    if ("after".equals(envelopeField.field)) {
+                        result = envelopeField.columnTypes;
+                    }
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private SchemaField readSchemaField(JsonParser parser, boolean withColumns) throws IOException {
+        SchemaField result = new SchemaField();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("field".equals(field)) {
+                result.field = parser.getValueAsString();
+            }
+            else if ("name".equals(field)) {
+                result.name = parser.getValueAsString();
+            }
+            else if (withColumns && "fields".equals(field) && token == JsonToken.START_ARRAY) {
+                result.columnTypes = new HashMap<>();
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    SchemaField column = readSchemaField(parser, false);
+                    if (column.field != null && column.name != null) {
+                        result.columnTypes.put(column.field, column.name);
+                    }
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private <T> ChangeEvent<T> decode(JsonParser parser, RowParser<T> rowParser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+
+        ChangeEvent<T> result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("payload".equals(field) && token == JsonToken.START_OBJECT) {
+                result = decodePayload(parser, rowParser);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private <T> ChangeEvent<T> decodePayload(JsonParser parser, RowParser<T> rowParser) throws IOException {
+        T after = null;
+        boolean snapshot = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("after".equals(field) && token == JsonToken.START_OBJECT) {
+                after = rowParser.parse(parser);
+            }
+            else if ("source".equals(field) && token == JsonToken.START_OBJECT) {
+                snapshot = decodeSnapshotFlag(parser);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return after == null ? null : new ChangeEvent<>(after, snapshot);
+    }
+
+    private boolean decodeSnapshotFlag(JsonParser parser) throws IOException {
+        boolean snapshot = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("snapshot".equals(field)) {
+                snapshot = parser.getValueAsBoolean();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads a single database row. Implementations are invoked with the
+     * parser positioned at the <code>START_OBJECT</code> token of the row
+     * and have to consume the object up to and including its
+     * <code>END_OBJECT</code> token.
+     *
+     * @param <T> the type of the decoded row
+     */
+    @FunctionalInterface
+    public interface RowParser<T> {
+
+        T parse(JsonParser parser) throws IOException;
+
+    }
+
+    /**
+     * Creates the {@link RowParser} of a topic whose rows have to be read
+     * according to the schema of the change events, e.g. to interpret
+     * timestamps with the declared precision.
+     *
+     * @param <T> the type of the decoded row
+     */
+    @FunctionalInterface
+    public interface RowParserFactory<T> {
+
+        /**
+         * @param columnTypes the semantic types of the columns, see {@link #readColumnTypes(byte[])}
+         * @return the parser for the rows of the topic
+         */
+        RowParser<T> create(Map<String, String> columnTypes);
+
+    }
+
+    private static class SchemaField {
+
+        private String field;
+        private String name;
+        private Map<String, String> columnTypes = Collections.emptyMap();
+
+    }
+
+}
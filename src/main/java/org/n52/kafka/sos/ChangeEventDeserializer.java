@@ -0,0 +1,118 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.n52.kafka.sos.metrics.Histogram;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kafka deserializer decoding Debezium change events directly from the
+ * record bytes into the domain model. The row type is selected by the topic
+ * of the record: each subscribed table topic has to be registered with a
+ * {@link ChangeEventDecoder.RowParser}, or with a
+ * {@link ChangeEventDecoder.RowParserFactory} if the rows have to be read
+ * according to the schema of the events. Records of unregistered topics as
+ * well as records that cannot be decoded are returned as null.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ChangeEventDeserializer implements Deserializer<ChangeEvent<?>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeEventDeserializer.class.getName());
+
+    private final ChangeEventDecoder decoder;
+    private final Map<String, TopicRowParsers<?>> rowParsers = new HashMap<>();
+    private final Map<String, Histogram> decodeTimes = new HashMap<>();
+    private PipelineMetrics metrics = new PipelineMetrics();
+
+    public ChangeEventDeserializer(ChangeEventDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * @param <T> the type of the rows
+     * @param topic the topic
+     * @param rowParser the parser of all events of the topic, their schema is not read
+     * @return this deserializer
+     */
+    public <T> ChangeEventDeserializer register(String topic, ChangeEventDecoder.RowParser<T> rowParser) {
+        return register(topic, TopicRowParsers.fixed(rowParser));
+    }
+
+    /**
+     * @param <T> the type of the rows
+     * @param topic the topic
+     * @param rowParserFactory creates the row parser from the column types declared by the first event of
+     * the topic
+     * @return this deserializer
+     */
+    public <T> ChangeEventDeserializer registerWithSchema(String topic,
+            ChangeEventDecoder.RowParserFactory<T> rowParserFactory) {
+        return register(topic, new TopicRowParsers<>(decoder, rowParserFactory));
+    }
+
+    private ChangeEventDeserializer register(String topic, TopicRowParsers<?> topicRowParsers) {
+        this.rowParsers.put(topic, topicRowParsers);
+        this.decodeTimes.put(topic, this.metrics.histogram("decode." + topic + ".timeNanos"));
+        return this;
+    }
+
+    /**
+     * @param metrics the registry to record the decoding times per topic in. Has to be set before
+     * registering the topics
+     * @return this deserializer
+     */
+    public ChangeEventDeserializer withMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public ChangeEvent<?> deserialize(String topic, byte[] data) {
+        TopicRowParsers<?> topicRowParsers = rowParsers.get(topic);
+        if (topicRowParsers == null || data == null) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return decoder.decode(data, topicRowParsers.forTopic(topic, data));
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Error decoding database update on topic {}: {}", topic, ex.getMessage());
+            LOG.debug("Value causing below exception: " + new String(data, StandardCharsets.UTF_8), ex);
+            return null;
+        } finally {
+            decodeTimes.get(topic).recordSince(start);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
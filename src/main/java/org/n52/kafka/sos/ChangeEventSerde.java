@@ -0,0 +1,168 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Serde for the change events of a single table. Events are read from the
+ * Debezium envelope and written back as a reduced envelope that only
+ * carries <code>payload.after</code> and <code>payload.source.snapshot</code>,
+ * so that state stores and repartition topics do not hold the schema
+ * block of every record. Rows that have to be read according to the
+ * schema of the events are parsed by a parser resolved per topic (see
+ * {@link #withSchema(ChangeEventDecoder.RowParserFactory, RowWriter)}),
+ * the reduced envelope is read with the defaults of the factory.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ * @param <T> the type of the row
+ */
+public class ChangeEventSerde<T> implements Serde<ChangeEvent<T>> {
+
+    private final JsonFactory factory;
+    private final ChangeEventDecoder decoder;
+    private final TopicRowParsers<T> rowParsers;
+    private final RowWriter<T> rowWriter;
+
+    public ChangeEventSerde(ChangeEventDecoder.RowParser<T> rowParser, RowWriter<T> rowWriter) {
+        this(new JsonFactory(), rowParser, rowWriter);
+    }
+
+    public ChangeEventSerde(JsonFactory factory, ChangeEventDecoder.RowParser<T> rowParser,
+            RowWriter<T> rowWriter) {
+        this(factory, new ChangeEventDecoder(factory), TopicRowParsers.fixed(rowParser), rowWriter);
+    }
+
+    private ChangeEventSerde(JsonFactory factory, ChangeEventDecoder decoder, TopicRowParsers<T> rowParsers,
+            RowWriter<T> rowWriter) {
+        this.factory = factory;
+        this.decoder = decoder;
+        this.rowParsers = rowParsers;
+        this.rowWriter = rowWriter;
+    }
+
+    /**
+     * @param <T> the type of the row
+     * @param rowParserFactory creates the row parser of a topic from the column types declared by its first event
+     * @param rowWriter the writer of the rows
+     * @return a serde reading the rows according to the schema of the events
+     */
+    public static <T> ChangeEventSerde<T> withSchema(ChangeEventDecoder.RowParserFactory<T> rowParserFactory,
+            RowWriter<T> rowWriter) {
+        JsonFactory factory = new JsonFactory();
+        ChangeEventDecoder decoder = new ChangeEventDecoder(factory);
+        return new ChangeEventSerde<>(factory, decoder, new TopicRowParsers<>(decoder, rowParserFactory),
+                rowWriter);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Serializer<ChangeEvent<T>> serializer() {
+        return new Serializer<ChangeEvent<T>>() {
+            @Override
+            public void configure(Map<String, ?> configs, boolean isKey) {
+            }
+
+            @Override
+            public byte[] serialize(String topic, ChangeEvent<T> data) {
+                if (data == null) {
+                    return null;
+                }
+                try {
+                    return encode(data);
+                } catch (IOException ex) {
+                    throw new SerializationException("Could not serialize change event for topic " + topic, ex);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Deserializer<ChangeEvent<T>> deserializer() {
+        return new Deserializer<ChangeEvent<T>>() {
+            @Override
+            public void configure(Map<String, ?> configs, boolean isKey) {
+            }
+
+            @Override
+            public ChangeEvent<T> deserialize(String topic, byte[] data) {
+                try {
+                    if (data == null) {
+                        return null;
+                    }
+                    return decoder.decode(data, rowParsers.forTopic(topic, data));
+                } catch (IOException ex) {
+                    throw new SerializationException("Could not deserialize change event of topic " + topic, ex);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    byte[] encode(ChangeEvent<T> event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("payload");
+            generator.writeFieldName("after");
+            rowWriter.write(event.getAfter(), generator);
+            generator.writeObjectFieldStart("source");
+            generator.writeBooleanField("snapshot", event.isSnapshot());
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a single database row as JSON object, the counterpart of
+     * {@link ChangeEventDecoder.RowParser}.
+     *
+     * @param <T> the type of the row
+     */
+    @FunctionalInterface
+    public interface RowWriter<T> {
+
+        void write(T row, JsonGenerator generator) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe variant of {@link IntObjectMap}. Writers are serialized by a
+ * {@link StampedLock}, lookups are optimistic and do not acquire the lock
+ * unless they overlap with a write.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ * @param <V> the value type
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private final IntObjectMap<V> map;
+    private final StampedLock lock = new StampedLock();
+    private final Map<Integer, V> view = new MapView();
+
+    public ConcurrentIntObjectMap() {
+        this.map = new IntObjectMap<>();
+    }
+
+    public ConcurrentIntObjectMap(int expectedSize) {
+        this.map = new IntObjectMap<>(expectedSize);
+    }
+
+    public V get(int key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            V value = map.get(key);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return map.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public V put(int key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(int key) {
+        long stamp = lock.writeLock();
+        try {
+            return map.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            map.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a copy of the values, taken under the read lock without boxing the keys
+     */
+    public List<V> copyValues() {
+        long stamp = lock.readLock();
+        try {
+            List<V> values = new ArrayList<>(map.size());
+            map.forEach((key, value) -> values.add(value));
+            return values;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a read-only {@link Map} view. Lookups are backed by this map,
+     * iteration works on a snapshot taken at the time of the call; the
+     * values are copied without building a boxed map.
+     */
+    public Map<Integer, V> asMap() {
+        return view;
+    }
+
+    private Map<Integer, V> snapshot() {
+        long stamp = lock.readLock();
+        try {
+            return new HashMap<>(map.asMap());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private class MapView extends AbstractMap<Integer, V> {
+
+        @Override
+        public V get(Object key) {
+            return key instanceof Integer ? ConcurrentIntObjectMap.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && ConcurrentIntObjectMap.this.containsKey((Integer) key);
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentIntObjectMap.this.size();
+        }
+
+        @Override
+        public Set<Entry<Integer, V>> entrySet() {
+            return Collections.unmodifiableMap(snapshot()).entrySet();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return Collections.unmodifiableList(copyValues());
+        }
+
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the Debezium connector capturing the SOS database at Kafka
+ * Connect. The REST endpoint is polled with an exponential backoff until it
+ * is available. The connector is then created or updated with
+ * <code>PUT /connectors/sos-connector/config</code>, but only if its
+ * configuration differs: an unchanged connector keeps running and does not
+ * start a new snapshot. Reading and putting the configuration are retried
+ * with the same backoff while Connect answers with 409 (rebalance) or 5xx.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class DebeziumConnector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DebeziumConnector.class.getName());
+
+    private static final String CONNECTOR_NAME = "sos-connector";
+    private static final TypeReference<Map<String, Object>> CONFIG_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final String kafkaConnectRestBaseUrl;
+    private final Settings settings;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final long readinessTimeoutMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int requestTimeoutMillis;
+
+    public DebeziumConnector(String kafkaConnectRestBaseUrl, Settings settings) {
+        this.kafkaConnectRestBaseUrl = kafkaConnectRestBaseUrl;
+        this.settings = settings;
+        this.readinessTimeoutMillis = TimeUnit.SECONDS.toMillis(
+                settings.getLong("connect.readinessTimeoutSeconds", 300));
+        this.initialBackoffMillis = Math.max(1, settings.getLong("connect.initialBackoffMs", 100));
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, settings.getLong("connect.maxBackoffMs", 5000));
+        this.requestTimeoutMillis = settings.getInt("connect.requestTimeoutMs", 10000);
+    }
+
+    /**
+     * Waits for Kafka Connect and registers the connector.
+     *
+     * @throws IOException if Kafka Connect did not become available in time
+     * or rejected the configuration
+     */
+    public void initialize() throws IOException {
+        LOG.info("initializeDebeziumConnector");
+        awaitReady();
+        register();
+    }
+
+    /**
+     * Runs {@link #initialize()} on a background thread.
+     *
+     * @return completed once the connector is registered
+     */
+    public CompletableFuture<Void> initializeAsync() {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                initialize();
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, "sos-connector-registration");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private void awaitReady() throws IOException {
+        HttpResponse response = execute("Kafka Connect readiness probe",
+                () -> Request.Get(this.kafkaConnectRestBaseUrl),
+                status -> status >= HttpStatus.SC_MULTIPLE_CHOICES);
+        EntityUtils.consumeQuietly(response.getEntity());
+        LOG.info("Kafka Connect available at {}", this.kafkaConnectRestBaseUrl);
+    }
+
+    private void register() throws IOException {
+        Map<String, Object> config = createConfig();
+        String configUrl = this.kafkaConnectRestBaseUrl + "connectors/" + CONNECTOR_NAME + "/config";
+
+        HttpResponse current = execute("Reading the configuration of connector " + CONNECTOR_NAME,
+                () -> Request.Get(configUrl), DebeziumConnector::isTransientFailure);
+        int currentStatus = current.getStatusLine().getStatusCode();
+        if (currentStatus == HttpStatus.SC_OK) {
+            Map<String, Object> registered = mapper.readValue(EntityUtils.toString(current.getEntity()), CONFIG_TYPE);
+            if (config.equals(registered)) {
+                LOG.info("Connector {} is registered with the current configuration", CONNECTOR_NAME);
+                return;
+            }
+            LOG.info("Updating the configuration of connector {}", CONNECTOR_NAME);
+        }
+        else {
+            EntityUtils.consumeQuietly(current.getEntity());
+            LOG.info("Creating connector {}", CONNECTOR_NAME);
+        }
+
+        String body = mapper.writeValueAsString(config);
+        HttpResponse response = execute("Registering connector " + CONNECTOR_NAME,
+                () -> Request.Put(configUrl).bodyString(body, ContentType.APPLICATION_JSON),
+                DebeziumConnector::isTransientFailure);
+        String responseString = EntityUtils.toString(response.getEntity());
+        if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw new IOException(responseString);
+        }
+        LOG.info("Response from kafka connect: " + responseString);
+    }
+
+    /**
+     * Kafka Connect answers with 409 while the workers rebalance, and with a
+     * 5xx status while a worker (re)starts.
+     */
+    private static boolean isTransientFailure(int status) {
+        return status == HttpStatus.SC_CONFLICT || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Executes a request with an exponential backoff until it succeeds or
+     * <code>connect.readinessTimeoutSeconds</code> have passed.
+     *
+     * @param description the description of the request for the log
+     * @param request creates the request, once per attempt
+     * @param retry whether to retry a request that has been answered with the status
+     * @return the first response that is not retried
+     * @throws IOException if the request has not succeeded in time
+     */
+    private HttpResponse execute(String description, Supplier<Request> request, IntPredicate retry)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + readinessTimeoutMillis;
+        long backoff = initialBackoffMillis;
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            String reason;
+            try {
+                HttpResponse response = request.get()
+                        .connectTimeout(requestTimeoutMillis)
+                        .socketTimeout(requestTimeoutMillis)
+                        .execute()
+                        .returnResponse();
+                int status = response.getStatusLine().getStatusCode();
+                if (!retry.test(status)) {
+                    if (attempts > 1) {
+                        LOG.info("{} succeeded after {} attempts", description, attempts);
+                    }
+                    return response;
+                }
+                EntityUtils.consumeQuietly(response.getEntity());
+                reason = "status " + status;
+            } catch (IOException e) {
+                reason = e.getMessage();
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException(description + " at " + this.kafkaConnectRestBaseUrl + " failed after "
+                        + attempts + " attempts: " + reason);
+            }
+            LOG.debug("{} failed ({}), retrying in {} ms", description, reason, backoff);
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for Kafka Connect", e);
+            }
+            backoff = Math.min(backoff * 2, maxBackoffMillis);
+        }
+    }
+
+    /**
+     * @return the configuration as returned by Kafka Connect, i.e.
+     * including the connector name
+     */
+    private Map<String, Object> createConfig() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("name", CONNECTOR_NAME);
+        config.put("connector.class", "io.debezium.connector.postgresql.PostgresConnector");
+        config.put("database.hostname", this.settings.getString("database.hostname", "postgres"));
+        config.put("database.port", this.settings.getString("database.port", "5432"));
+        config.put("database.user", this.settings.getString("database.user", "postgres"));
+        config.put("database.password", this.settings.getString("database.password", "postgres"));
+        config.put("database.dbname", this.settings.getString("database.dbname", "postgres"));
+        config.put("database.server.name", KafkaSosConsumer.SOS_NAME);
+        config.put("snapshot.mode", this.settings.getString("snapshot.mode", "never"));
+        config.put("schema.whitelist", KafkaSosConsumer.SOS_DB_SCHEMA);
+        config.put("table.blacklist", "public.geography_columns,public.geometry_columns,public.raster_columns,public.raster_overviews");
+        return config;
+    }
+
+}
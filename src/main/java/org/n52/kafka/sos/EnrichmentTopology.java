@@ -0,0 +1,444 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.GlobalKTable;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.KStreamBuilder;
+import org.apache.kafka.streams.kstream.KTable;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.n52.kafka.sos.codec.MeasurementCodec;
+import org.n52.kafka.sos.codec.MeasurementCodecs;
+import org.n52.kafka.sos.model.BaseEntity;
+import org.n52.kafka.sos.model.Feature;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.ObservableProperty;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+import org.n52.kafka.sos.model.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kafka Streams variant of the enrichment join. The metadata tables are
+ * held in state stores instead of the heap of a single JVM:
+ * <ul>
+ * <li>series, procedure, feature, unit, observable property and offering
+ * are small and read as {@link GlobalKTable}s, so every instance holds a
+ * full copy</li>
+ * <li>observations are keyed by their id and held in a partitioned
+ * {@link KTable}; the values are repartitioned by observation id and
+ * joined against it</li>
+ * </ul>
+ * The Debezium topics are keyed by a JSON representation of the primary
+ * key. Global tables are restored from their source topic without
+ * deserialization, so the metadata rows are first copied to compacted
+ * topics keyed by the integer id (see {@link #getMetadataTopics()}).
+ * <p>
+ * Values whose observation, series or offering has not been received yet
+ * are parked in a changelogged store and retried periodically, until they
+ * exceed <code>pendingValues.ttlSeconds</code> (at most
+ * <code>pendingValues.capacity</code> per task). The enriched measurements
+ * are written to a single output topic keyed by the offering id, see
+ * {@link #getOutputTopic()}. Kafka Streams 0.11 neither routes records to
+ * topics by content nor writes headers, so all measurements are encoded
+ * with the one codec of the <code>codec</code> setting; per-offering
+ * overrides (<code>codec.&lt;offeringId&gt;</code>) are not applied. In
+ * contrast to {@link KafkaSosConsumer}, which writes one topic
+ * <code>sos.offerings.&lt;offeringId&gt;</code> per offering with a
+ * content-type header, the output is therefore not interchangeable.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class EnrichmentTopology {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnrichmentTopology.class.getName());
+
+    static final String OBSERVATION_STORE = "sos-observations";
+    static final String PENDING_STORE = "sos-pending-values";
+    private static final Pattern OFFERING_CODEC = Pattern.compile("codec\\.\\d+");
+
+    private final String topicPrefix;
+    private final String outputTopic;
+    private final String codecName;
+    private final List<String> ignoredCodecs;
+    private final int pendingCapacity;
+    private final long pendingTtlMillis;
+    private final long pendingRetryMillis;
+    private final ChangeEventSerde<Value> valueSerde = new ChangeEventSerde<>(Value::fromJson, Value::toJson);
+    private final ChangeEventSerde<Observation> observationSerde
+            = ChangeEventSerde.withSchema(Observation::parserFor, Observation::toJson);
+    private final ChangeEventSerde<Series> seriesSerde = new ChangeEventSerde<>(Series::fromJson, Series::toJson);
+    private final ChangeEventSerde<Procedure> procedureSerde
+            = new ChangeEventSerde<>(Procedure::fromJson, Procedure::toJson);
+    private final ChangeEventSerde<Feature> featureSerde = new ChangeEventSerde<>(Feature::fromJson, Feature::toJson);
+    private final ChangeEventSerde<Unit> unitSerde = new ChangeEventSerde<>(Unit::fromJson, Unit::toJson);
+    private final ChangeEventSerde<ObservableProperty> observablePropertySerde
+            = new ChangeEventSerde<>(ObservableProperty::fromJson, ObservableProperty::toJson);
+    private final ChangeEventSerde<Offering> offeringSerde = new ChangeEventSerde<>(Offering::fromJson, Offering::toJson);
+
+    /**
+     * @param topicPrefix the prefix of the re-keyed metadata topics, usually the application id
+     */
+    public EnrichmentTopology(String topicPrefix) {
+        this(topicPrefix, new Settings(null));
+    }
+
+    /**
+     * @param topicPrefix the prefix of the re-keyed metadata topics, usually the application id
+     * @param settings the settings of the output topic and the pending values
+     */
+    public EnrichmentTopology(String topicPrefix, Settings settings) {
+        this.topicPrefix = topicPrefix;
+        this.outputTopic = settings.getString("streams.outputTopic", "sos.offerings");
+        this.codecName = settings.getString("codec", MeasurementCodecs.DEFAULT_CODEC);
+        this.ignoredCodecs = settings.getProperties().stringPropertyNames().stream()
+                .filter(key -> OFFERING_CODEC.matcher(key).matches())
+                .sorted()
+                .collect(Collectors.toList());
+        this.pendingCapacity = settings.getInt("pendingValues.capacity", 100000);
+        this.pendingTtlMillis = TimeUnit.SECONDS.toMillis(settings.getLong("pendingValues.ttlSeconds", 60));
+        this.pendingRetryMillis = settings.getLong("streams.pendingRetryMs", 1000);
+    }
+
+    /**
+     * @return the re-keyed metadata topics the global tables are read from.
+     * These are not managed by Kafka Streams and have to exist before the
+     * topology is started.
+     */
+    public List<String> getMetadataTopics() {
+        return Arrays.asList(metadataTopic(KafkaSosConsumer.SERIES_TABLE),
+                metadataTopic(KafkaSosConsumer.PROCEDURE_TABLE),
+                metadataTopic(KafkaSosConsumer.FEATUREOFINTEREST_TABLE),
+                metadataTopic(KafkaSosConsumer.UNIT_TABLE),
+                metadataTopic(KafkaSosConsumer.OBSERVABLEPROPERTY_TABLE),
+                metadataTopic(KafkaSosConsumer.OFFERING_TABLE));
+    }
+
+    /**
+     * @return the topic the enriched measurements are written to, keyed by
+     * the offering id (4 byte big-endian integer) and encoded with the codec
+     * {@link #getCodecName()}. Kafka Streams 0.11 writes a stream to a fixed
+     * topic, so the measurements of all offerings share it instead of the
+     * topics <code>sos.offerings.&lt;offeringId&gt;</code> of the consumer
+     * engine.
+     */
+    public String getOutputTopic() {
+        return outputTopic;
+    }
+
+    /**
+     * @return the name of the codec all measurements of the output topic are encoded with
+     */
+    public String getCodecName() {
+        return codecName;
+    }
+
+    /**
+     * @param builder the builder to add the topology to
+     * @param codecs the available codecs, the one of the <code>codec</code> setting encodes all measurements
+     * @throws IllegalArgumentException if the codec is not available
+     */
+    public void build(KStreamBuilder builder, MeasurementCodecs codecs) {
+        MeasurementCodec codec;
+        try {
+            codec = codecs.forName(codecName);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+        if (!ignoredCodecs.isEmpty()) {
+            LOG.warn("The streams engine encodes all offerings with codec '{}', ignoring {}", codecName,
+                    ignoredCodecs);
+        }
+
+        GlobalKTable<Integer, ChangeEvent<Series>> series
+                = metadataTable(builder, KafkaSosConsumer.SERIES_TABLE, seriesSerde);
+        GlobalKTable<Integer, ChangeEvent<Procedure>> procedures
+                = metadataTable(builder, KafkaSosConsumer.PROCEDURE_TABLE, procedureSerde);
+        GlobalKTable<Integer, ChangeEvent<Feature>> features
+                = metadataTable(builder, KafkaSosConsumer.FEATUREOFINTEREST_TABLE, featureSerde);
+        GlobalKTable<Integer, ChangeEvent<Unit>> units
+                = metadataTable(builder, KafkaSosConsumer.UNIT_TABLE, unitSerde);
+        GlobalKTable<Integer, ChangeEvent<ObservableProperty>> observableProperties
+                = metadataTable(builder, KafkaSosConsumer.OBSERVABLEPROPERTY_TABLE, observablePropertySerde);
+        GlobalKTable<Integer, ChangeEvent<Offering>> offerings
+                = metadataTable(builder, KafkaSosConsumer.OFFERING_TABLE, offeringSerde);
+
+        KTable<Integer, ChangeEvent<Observation>> observations
+                = byId(changes(builder, KafkaSosConsumer.OBSERVATION_TABLE, observationSerde))
+                .groupByKey(Serdes.Integer(), observationSerde)
+                .reduce((previous, current) -> current, OBSERVATION_STORE);
+
+        builder.addStateStore(Stores.create(PENDING_STORE)
+                .withKeys(Serdes.Long())
+                .withValues(valueSerde)
+                .persistent()
+                .build());
+
+        /*
+         * the left join repartitions the values by observation id, so that
+         * the pending values are held by the task owning their observation
+         */
+        changes(builder, KafkaSosConsumer.NUMERICVALUE_TABLE, valueSerde)
+                .filterNot((id, value) -> value.isSnapshot())
+                .selectKey((id, value) -> value.getAfter().getObservationId())
+                .leftJoin(observations, (value, obs) -> new Enrichment(value.getAfter(), after(obs)),
+                        Serdes.Integer(), valueSerde)
+                .transform(PendingValues::new, OBSERVATION_STORE, PENDING_STORE)
+                .leftJoin(procedures, (id, e) -> e.series.getProcedureId(),
+                        (e, p) -> e.withProcedure(after(p)))
+                .leftJoin(features, (id, e) -> e.series.getFeatureId(),
+                        (e, f) -> e.withFeature(after(f)))
+                .leftJoin(units, (id, e) -> e.series.getUnitId(),
+                        (e, u) -> e.withUnit(after(u)))
+                .leftJoin(observableProperties, (id, e) -> e.series.getObservablePropertyId(),
+                        (e, o) -> e.withObservableProperty(after(o)))
+                .map((id, e) -> KeyValue.pair(e.offering.getId(), encode(codec, e)))
+                .filter((offeringId, encoded) -> encoded != null)
+                .to(Serdes.Integer(), Serdes.ByteArray(), outputTopic);
+    }
+
+    private static byte[] encode(MeasurementCodec codec, Enrichment e) {
+        try {
+            return codec.encode(e.toMeasurement());
+        } catch (IOException ex) {
+            LOG.warn("Could not encode enriched observation: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    String metadataTopic(String table) {
+        return topicPrefix + "." + table;
+    }
+
+    /**
+     * Reads the Debezium topic of a table. Deletions are dropped.
+     */
+    private <T> KStream<byte[], ChangeEvent<T>> changes(KStreamBuilder builder, String table,
+            Serde<ChangeEvent<T>> serde) {
+        KStream<byte[], ChangeEvent<T>> raw = builder.stream(Serdes.ByteArray(), serde,
+                KafkaSosConsumer.SOS_NAME + "." + table);
+        return raw.filter((key, event) -> event != null);
+    }
+
+    private static <T extends BaseEntity> KStream<Integer, ChangeEvent<T>> byId(
+            KStream<byte[], ChangeEvent<T>> changes) {
+        return changes.selectKey((key, event) -> event.getAfter().getId());
+    }
+
+    private <T extends BaseEntity> GlobalKTable<Integer, ChangeEvent<T>> metadataTable(KStreamBuilder builder,
+            String table, Serde<ChangeEvent<T>> serde) {
+        String topic = metadataTopic(table);
+        byId(changes(builder, table, serde)).to(Serdes.Integer(), serde, topic);
+        return builder.globalTable(Serdes.Integer(), serde, topic, metadataStore(table));
+    }
+
+    private static String metadataStore(String table) {
+        return "sos-" + table;
+    }
+
+    private static <T> T after(ChangeEvent<T> event) {
+        return event != null ? event.getAfter() : null;
+    }
+
+    /**
+     * Completes the observation, series and offering of a value from the
+     * state stores, or parks the value until they are available. Parked
+     * values are keyed by their arrival time followed by a sequence number,
+     * so that the store iterates them in arrival order.
+     */
+    private final class PendingValues implements Transformer<Integer, Enrichment, KeyValue<Integer, Enrichment>> {
+
+        private ProcessorContext context;
+        private KeyValueStore<Integer, ChangeEvent<Observation>> observationStore;
+        private KeyValueStore<Integer, ChangeEvent<Series>> seriesStore;
+        private KeyValueStore<Integer, ChangeEvent<Offering>> offeringStore;
+        private KeyValueStore<Long, ChangeEvent<Value>> pending;
+        private int size;
+        private int sequence;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void init(ProcessorContext context) {
+            this.context = context;
+            this.observationStore = (KeyValueStore<Integer, ChangeEvent<Observation>>)
+                    context.getStateStore(OBSERVATION_STORE);
+            this.seriesStore = (KeyValueStore<Integer, ChangeEvent<Series>>)
+                    context.getStateStore(metadataStore(KafkaSosConsumer.SERIES_TABLE));
+            this.offeringStore = (KeyValueStore<Integer, ChangeEvent<Offering>>)
+                    context.getStateStore(metadataStore(KafkaSosConsumer.OFFERING_TABLE));
+            this.pending = (KeyValueStore<Long, ChangeEvent<Value>>) context.getStateStore(PENDING_STORE);
+            try (KeyValueIterator<Long, ChangeEvent<Value>> it = pending.all()) {
+                while (it.hasNext()) {
+                    it.next();
+                    size++;
+                }
+            }
+            context.schedule(pendingRetryMillis);
+        }
+
+        @Override
+        public KeyValue<Integer, Enrichment> transform(Integer observationId, Enrichment e) {
+            if (resolve(e)) {
+                return KeyValue.pair(observationId, e);
+            }
+            park(e.value);
+            return null;
+        }
+
+        private boolean resolve(Enrichment e) {
+            if (e.observation == null) {
+                return false;
+            }
+            e.withSeries(after(seriesStore.get(e.observation.getSeriesId())));
+            if (e.series == null) {
+                return false;
+            }
+            e.withOffering(after(offeringStore.get(e.series.getOfferingId())));
+            return e.offering != null;
+        }
+
+        private void park(Value value) {
+            if (size >= pendingCapacity) {
+                try (KeyValueIterator<Long, ChangeEvent<Value>> it = pending.all()) {
+                    if (it.hasNext()) {
+                        KeyValue<Long, ChangeEvent<Value>> oldest = it.next();
+                        pending.delete(oldest.key);
+                        size--;
+                        LOG.warn("Pending value store is full, dropping {}", oldest.value.getAfter());
+                    }
+                }
+            }
+            pending.put((System.currentTimeMillis() << 20) | (sequence++ & 0xFFFFF), new ChangeEvent<>(value, false));
+            size++;
+        }
+
+        /**
+         * Forwards the parked values that can be enriched now and drops
+         * those that have exceeded their time to live.
+         */
+        @Override
+        public KeyValue<Integer, Enrichment> punctuate(long timestamp) {
+            long expiredBefore = (System.currentTimeMillis() - pendingTtlMillis) << 20;
+            List<Long> done = new ArrayList<>();
+            int expired = 0;
+            try (KeyValueIterator<Long, ChangeEvent<Value>> it = pending.all()) {
+                while (it.hasNext()) {
+                    KeyValue<Long, ChangeEvent<Value>> entry = it.next();
+                    Value value = entry.value.getAfter();
+                    Enrichment e = new Enrichment(value, after(observationStore.get(value.getObservationId())));
+                    if (resolve(e)) {
+                        context.forward(value.getObservationId(), e);
+                        done.add(entry.key);
+                    }
+                    else if (entry.key < expiredBefore) {
+                        LOG.debug("Dropping pending value {}", value);
+                        done.add(entry.key);
+                        expired++;
+                    }
+                }
+            }
+            done.forEach(pending::delete);
+            size -= done.size();
+            if (expired > 0) {
+                LOG.warn("Dropped {} values whose metadata did not become available in time", expired);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    /**
+     * Collects the rows joined to a value. Instances are only passed along
+     * within a single stream task and never serialized.
+     */
+    private static final class Enrichment {
+
+        private final Value value;
+        private final Observation observation;
+        private Series series;
+        private Procedure procedure;
+        private Feature feature;
+        private Unit unit;
+        private ObservableProperty observableProperty;
+        private Offering offering;
+
+        Enrichment(Value value, Observation observation) {
+            this.value = value;
+            this.observation = observation;
+        }
+
+        Enrichment withSeries(Series series) {
+            this.series = series;
+            return this;
+        }
+
+        Enrichment withProcedure(Procedure procedure) {
+            this.procedure = procedure;
+            return this;
+        }
+
+        Enrichment withFeature(Feature feature) {
+            this.feature = feature;
+            return this;
+        }
+
+        Enrichment withUnit(Unit unit) {
+            this.unit = unit;
+            return this;
+        }
+
+        Enrichment withObservableProperty(ObservableProperty observableProperty) {
+            this.observableProperty = observableProperty;
+            return this;
+        }
+
+        Enrichment withOffering(Offering offering) {
+            this.offering = offering;
+            return this;
+        }
+
+        MeasurementObservation toMeasurement() {
+            return MeasurementObservation.of(value, observation,
+                    series.enrich(unit, feature, observableProperty, procedure));
+        }
+
+    }
+
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Open-addressing hash map with primitive <code>int</code> keys. Lookups
+ * and updates do not box the key and do not allocate entry objects. Values
+ * must not be null, as an empty slot is represented by a null value.
+ * <p>
+ * Collisions are resolved by linear probing, removals use backward shifting
+ * so that no tombstones are left behind.
+ * <p>
+ * Instances are not thread-safe, see {@link ConcurrentIntObjectMap}.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ * @param <V> the value type
+ */
+public class IntObjectMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private Map<Integer, V> view;
+
+    public IntObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = hash(key) & mask;
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        /*
+         * work on local copies of the tables: this allows optimistic reads
+         * concurrent to a writer (see ConcurrentIntObjectMap), where the
+         * result is discarded afterwards if a write interfered
+         */
+        int[] k = keys;
+        Object[] v = values;
+        int m = Math.min(k.length, v.length) - 1;
+        int i = hash(key) & m;
+        Object value;
+        while ((value = v[i]) != null && k[i] != key) {
+            i = (i + 1) & m;
+        }
+        return (V) value;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key the key
+     * @param value the value, not null
+     * @return the value previously associated with the key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+
+        int i = slot(key);
+        V previous = (V) values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (previous == null && ++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return previous;
+    }
+
+    /**
+     * @param key the key
+     * @return the value previously associated with the key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = slot(key);
+        V previous = (V) values[i];
+        if (previous == null) {
+            return null;
+        }
+
+        values[i] = null;
+        size--;
+
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                return previous;
+            }
+            int home = hash(keys[j]) & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return a read-only {@link Map} view backed by this map
+     */
+    public Map<Integer, V> asMap() {
+        if (view == null) {
+            view = new MapView();
+        }
+        return view;
+    }
+
+    @FunctionalInterface
+    public interface Consumer<V> {
+
+        void accept(int key, V value);
+
+    }
+
+    private class MapView extends AbstractMap<Integer, V> {
+
+        @Override
+        public V get(Object key) {
+            return key instanceof Integer ? IntObjectMap.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && IntObjectMap.this.containsKey((Integer) key);
+        }
+
+        @Override
+        public int size() {
+            return IntObjectMap.this.size();
+        }
+
+        @Override
+        public Set<Entry<Integer, V>> entrySet() {
+            return new AbstractSet<Entry<Integer, V>>() {
+                @Override
+                public Iterator<Entry<Integer, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return IntObjectMap.this.size();
+                }
+            };
+        }
+
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer, V>> {
+
+        private int next = advance(0);
+
+        private int advance(int from) {
+            int i = from;
+            while (i < values.length && values[i] == null) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<Integer, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, V> entry = new AbstractMap.SimpleImmutableEntry<>(keys[next], (V) values[next]);
+            next = advance(next + 1);
+            return entry;
+        }
+
+    }
+
+}
@@ -17,31 +17,52 @@
 package org.n52.kafka.sos;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.StatusLine;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.entity.ContentType;
-import org.apache.http.util.EntityUtils;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
-import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.n52.kafka.sos.codec.MeasurementCodecs;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.Histogram;
+import org.n52.kafka.sos.metrics.MetricsHttpServer;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.Feature;
 import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.ObservableProperty;
+import org.n52.kafka.sos.model.Observation;
 import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
 import org.n52.kafka.sos.model.Value;
 import org.slf4j.LoggerFactory;
 
@@ -53,35 +74,73 @@ public class KafkaSosConsumer implements Runnable {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(KafkaSosConsumer.class.getName());
 
-    private final KafkaConsumer<String, String> consumer;
+    private final KafkaConsumer<byte[], ChangeEvent<?>> consumer;
+    private final KafkaConsumer<byte[], ChangeEvent<?>> metadataConsumer;
+    private final long assignmentRefreshInterval;
+    private long lastAssignmentRefresh;
+    private Map<TopicPartition, Long> metadataEndOffsets;
+    private boolean metadataCaughtUp;
     private final List<String> tables;
     private final int id;
 
-    private static final String SOS_NAME = "sos";
-    private static final String SOS_DB_SCHEMA = "public";
+    static final String SOS_NAME = "sos";
+    static final String SOS_DB_SCHEMA = "public";
 
-    private static final String OBSERVATION_TABLE = SOS_DB_SCHEMA + ".observation";
-    private static final String SERIES_TABLE = SOS_DB_SCHEMA + ".series";
-    private static final String PROCEDURE_TABLE = SOS_DB_SCHEMA + ".procedure";
-    private static final String OBSERVABLEPROPERTY_TABLE = SOS_DB_SCHEMA + ".observableproperty";
-    private static final String OFFERING_TABLE = SOS_DB_SCHEMA + ".offering";
-    private static final String UNIT_TABLE = SOS_DB_SCHEMA + ".unit";
-    private static final String FEATUREOFINTEREST_TABLE = SOS_DB_SCHEMA + ".featureofinterest";
-    private static final String NUMERICVALUE_TABLE = SOS_DB_SCHEMA + ".numericvalue";
+    static final String OBSERVATION_TABLE = SOS_DB_SCHEMA + ".observation";
+    static final String SERIES_TABLE = SOS_DB_SCHEMA + ".series";
+    static final String PROCEDURE_TABLE = SOS_DB_SCHEMA + ".procedure";
+    static final String OBSERVABLEPROPERTY_TABLE = SOS_DB_SCHEMA + ".observableproperty";
+    static final String OFFERING_TABLE = SOS_DB_SCHEMA + ".offering";
+    static final String UNIT_TABLE = SOS_DB_SCHEMA + ".unit";
+    static final String FEATUREOFINTEREST_TABLE = SOS_DB_SCHEMA + ".featureofinterest";
+    static final String NUMERICVALUE_TABLE = SOS_DB_SCHEMA + ".numericvalue";
 
-    private final MetadataCache cache = new MetadataCache();
+    private static final long POLL_TIMEOUT = 1000;
+    private static final long SCALE_OUT_POLL_TIMEOUT = 100;
+
+    private final MetadataCache cache;
+    private final PendingValueBuffer pendingValues;
     private final ObjectMapper mapper = new ObjectMapper();
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final StripedExecutor executor;
+    private final int queueHighWatermark;
+    private final int queueLowWatermark;
+    private boolean valuesPaused;
     
     private final String bootstrapServers;
     private final String kafkaConnectRestBaseUrl;
-    private final Properties kafkaConnectSettings;
+    private final Settings settings;
     
-    private final Map<Integer, SosOfferingProducer> producers = new HashMap<>();
+    private final CacheSnapshot snapshot;
+    private final ExecutorService snapshotWriter;
+    private Future<?> snapshotWrite;
+    private final long snapshotInterval;
+    private final Map<TopicPartition, Long> snapshotOffsets = new HashMap<>();
+    private long lastSnapshot;
+
+    private final Map<Integer, SosOfferingProducer> producers = new ConcurrentHashMap<>();
+    private final ProducerPool producerPool;
+    private final TopicProvisioner topicProvisioner;
+    private final SnapshotBackfill backfill;
+    private final RetryingSender sender;
+    private final OffsetTracker offsets;
+    private final Map<Value, OffsetTracker.Completion> pendingCompletions;
+    private final long commitInterval;
+    private long lastCommit;
+    private final MeasurementCodecs codecs;
+
+    private final PipelineMetrics metrics;
+    private final Histogram pollBatchSize;
+    private final Histogram enrichmentTime;
+    private final Counter enrichmentRetries;
+    private final Counter valuesParked;
+    private final Counter valuesDropped;
+    private final Counter valuesWithoutProducer;
+    private final Counter backpressurePauses;
+    private MetricsHttpServer metricsServer;
 
 
     public KafkaSosConsumer(int id, String groupId, String bootstrapServers, String kafkaConnectRestBaseUrl,
-            Properties kafkaConnectSettings) {
+            Properties settings) {
         this.id = id;
         this.tables = Arrays.asList(OBSERVATION_TABLE,
                 SERIES_TABLE,
@@ -94,99 +153,190 @@ public class KafkaSosConsumer implements Runnable {
 
         this.bootstrapServers = bootstrapServers;
         this.kafkaConnectRestBaseUrl = kafkaConnectRestBaseUrl;
-        this.kafkaConnectSettings = kafkaConnectSettings;
+        this.settings = new Settings(settings);
+        this.metrics = new PipelineMetrics(this.settings.getBoolean("metrics.jmx", true));
+        this.pollBatchSize = metrics.histogram("poll.batchSize");
+        this.enrichmentTime = metrics.histogram("enrichment.timeNanos");
+        this.enrichmentRetries = metrics.counter("enrichment.retries");
+        this.valuesParked = metrics.counter("enrichment.parked");
+        this.valuesDropped = metrics.counter("enrichment.dropped");
+        this.valuesWithoutProducer = metrics.counter("enrichment.withoutProducer");
+        this.backpressurePauses = metrics.counter("backpressure.pauses");
+        this.cache = new MetadataCache(new ObservationStore(
+                this.settings.getInt("observationStore.maxEntries", 1000000),
+                this.settings.getLong("observationStore.maxAgeSeconds", 0),
+                TimeUnit.SECONDS,
+                this.settings.getBoolean("observationStore.evictOnEmit", false)), this.metrics);
+        this.executor = new StripedExecutor("sos-enrichment", this.settings.getInt("enrichment.threads", 1),
+                this.settings.getInt("enrichment.queueCapacity", 10000));
+        this.queueHighWatermark = this.settings.getInt("enrichment.queueHighWatermark", 5000);
+        this.queueLowWatermark = this.settings.getInt("enrichment.queueLowWatermark", 1000);
+        this.codecs = new MeasurementCodecs(this.settings);
+        this.producerPool = this.settings.getBoolean("producer.shared", false)
+                ? new ProducerPool(bootstrapServers, this.settings.getInt("producer.poolSize", 1),
+                        SosOfferingProducer.producerOverrides(this.settings),
+                        this.settings.getInt("producer.maxInFlight", 10000), this.metrics, "producer")
+                : null;
+        this.topicProvisioner = new TopicProvisioner(bootstrapServers, this.settings, this.metrics);
+        String snapshotFile = this.settings.getString("cacheSnapshot.file", "");
+        this.snapshot = snapshotFile.isEmpty() ? null : new CacheSnapshot(Paths.get(snapshotFile));
+        this.snapshotWriter = this.snapshot == null ? null : Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sos-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotInterval = TimeUnit.SECONDS.toMillis(this.settings.getLong("cacheSnapshot.intervalSeconds", 60));
+        this.sender = new RetryingSender(this.settings, this::shutdown, this.metrics);
+        this.backfill = this.settings.getBoolean("backfill.enabled", false)
+                ? new SnapshotBackfill(this.cache, this.producers, bootstrapServers, this.settings, this.sender,
+                        this.metrics)
+                : null;
+        if (this.backfill != null) {
+            metrics.gauge("backfill.sent", backfill::getSent);
+            metrics.gauge("backfill.failed", backfill::getFailed);
+        }
+        this.pendingValues = new PendingValueBuffer(
+                this.settings.getInt("pendingValues.capacity", 100000),
+                this.settings.getLong("pendingValues.ttlSeconds", 60),
+                TimeUnit.SECONDS);
+        this.pendingValues.setOverflowListener(value -> valuesDropped.increment());
+        metrics.gauge("executor.queueDepth", () -> IntStream.of(executor.getQueueDepths()).sum());
+        metrics.gauge("executor.maxQueueDepth", executor::getMaxQueueDepth);
+        metrics.gauge("executor.queueHighWatermark", () -> queueHighWatermark);
+        metrics.gauge("executor.queueLowWatermark", () -> queueLowWatermark);
+        metrics.gauge("executor.blockedSubmissions", executor::getBlockedSubmissions);
+        metrics.gauge("backpressure.paused", () -> valuesPaused ? 1 : 0);
+        metrics.gauge("pendingValues.size", pendingValues::size);
+        metrics.gauge("producer.awaitingTopic",
+                () -> producers.values().stream().mapToLong(SosOfferingProducer::getAwaitingTopic).sum());
         
         this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         
         Properties props = new Properties();
         props.put("bootstrap.servers", this.bootstrapServers);
         props.put("group.id", groupId);
-        props.put("key.deserializer", StringDeserializer.class.getName());
-        props.put("value.deserializer", StringDeserializer.class.getName());
-        this.consumer = new KafkaConsumer<>(props);
-        
+        props.put("auto.offset.reset", this.settings.getString("consumer.autoOffsetReset", "latest"));
+        /*
+         * change topics created by Debezium after the subscription are
+         * discovered with the next metadata refresh
+         */
+        props.put("metadata.max.age.ms", this.settings.getLong("consumer.metadataMaxAgeMs", 10000));
+        if (this.settings.getBoolean("consumer.atLeastOnce", false)) {
+            /*
+             * offsets are committed once the measurements of all records up
+             * to them have been acknowledged
+             */
+            props.put("enable.auto.commit", "false");
+            this.offsets = new OffsetTracker();
+            this.pendingCompletions = Collections.synchronizedMap(new IdentityHashMap<>());
+            this.pendingValues.setOverflowListener(value -> {
+                valuesDropped.increment();
+                complete(pendingCompletions.remove(value));
+            });
+            metrics.gauge("offsets.pending", offsets::getPending);
+        }
+        else {
+            this.offsets = null;
+            this.pendingCompletions = null;
+        }
+        this.commitInterval = this.settings.getLong("consumer.commitIntervalMs", 1000);
+
+        ChangeEventDeserializer deserializer = new ChangeEventDeserializer(new ChangeEventDecoder(mapper.getFactory()))
+                .withMetrics(this.metrics)
+                .registerWithSchema(SOS_NAME + "." + OBSERVATION_TABLE, Observation::parserFor)
+                .register(SOS_NAME + "." + SERIES_TABLE, Series::fromJson)
+                .register(SOS_NAME + "." + PROCEDURE_TABLE, Procedure::fromJson)
+                .register(SOS_NAME + "." + OFFERING_TABLE, Offering::fromJson)
+                .register(SOS_NAME + "." + OBSERVABLEPROPERTY_TABLE, ObservableProperty::fromJson)
+                .register(SOS_NAME + "." + UNIT_TABLE, Unit::fromJson)
+                .register(SOS_NAME + "." + FEATUREOFINTEREST_TABLE, Feature::fromJson)
+                .register(SOS_NAME + "." + NUMERICVALUE_TABLE, Value::fromJson);
+        this.consumer = new KafkaConsumer<>(props, new ByteArrayDeserializer(), deserializer);
 
         List<String> topics = this.tables.stream().map(t -> SOS_NAME + "." + t).collect(Collectors.toList());
-        consumer.subscribe(topics);
+        this.assignmentRefreshInterval = TimeUnit.SECONDS.toMillis(
+                this.settings.getLong("consumer.scaleOut.refreshSeconds", 30));
+        if (this.settings.getBoolean("consumer.scaleOut", false)) {
+            /*
+             * every instance reads all metadata partitions without a group,
+             * only the values are split between the instances of the group
+             */
+            Properties metadataProps = new Properties();
+            metadataProps.put("bootstrap.servers", this.bootstrapServers);
+            metadataProps.put("enable.auto.commit", "false");
+            metadataProps.put("auto.offset.reset", "earliest");
+            this.metadataConsumer = new KafkaConsumer<>(metadataProps, new ByteArrayDeserializer(), deserializer);
+            topics = Collections.singletonList(SOS_NAME + "." + NUMERICVALUE_TABLE);
+        }
+        else {
+            this.metadataConsumer = null;
+        }
+        this.metadataCaughtUp = this.metadataConsumer == null;
+
+        consumer.subscribe(topics, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                if (offsets != null) {
+                    commitSync();
+                    offsets.remove(partitions);
+                }
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                resumeFromSnapshot(partitions);
+                if (valuesPaused || !metadataCaughtUp) {
+                    consumer.pause(valuePartitions(partitions));
+                }
+            }
+        });
         LOG.info("Subscribed to the topics: {}", topics);
     }
 
     @Override
     public void run() {
-        try {
-            Thread.sleep(5000);
-            initializeDebeziumConnector();
-        } catch (IOException ex) {
-            LOG.error("Could not initialize debezium connector: " + ex.getMessage());
-            LOG.debug(ex.getMessage(), ex);
-            return;
-        } catch (InterruptedException ex) {
-            LOG.warn(ex.getMessage());
-        }
+        /*
+         * the metadata topics that exist already are consumed while the
+         * connector is registered
+         */
+        new DebeziumConnector(this.kafkaConnectRestBaseUrl, this.settings).initializeAsync()
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        LOG.error("Could not initialize debezium connector: " + ex.getMessage());
+                        LOG.debug(ex.getMessage(), ex);
+                        shutdown();
+                    }
+                });
+
+        restoreSnapshot();
+        startMetricsServer();
 
         try {
             while (true) {
                 /*
                 * listen for updates from topics forever
                 */
-                ConsumerRecords<String, String> records = consumer.poll(Long.MAX_VALUE);
-                for (ConsumerRecord<String, String> record : records) {
-                    Map<String, Object> data = new HashMap<>();
-
-                    try {
-                        JsonNode valueJson = mapper.readTree(record.value());
-                        JsonNode payload = valueJson.path("payload");
-                        if (payload.isMissingNode()) {
-                            return;
-                        }
-                        JsonNode after = payload.path("after");
-                        if (after.isMissingNode()) {
-                            return;
-                        }
-                        switch (record.topic()) {
-                            case SOS_NAME + "." + OBSERVATION_TABLE:
-                                cache.newObservation(after);
-                                break;
-                            case SOS_NAME + "." + SERIES_TABLE:
-                                cache.newSeries(after);
-                                break;
-                            case SOS_NAME + "." + PROCEDURE_TABLE:
-                                cache.newProcedure(after);
-                                break;
-                            case SOS_NAME + "." + OFFERING_TABLE:
-                                initializeProducer(cache.newOffering(after));
-                                break;
-                            case SOS_NAME + "." + OBSERVABLEPROPERTY_TABLE:
-                                cache.newObservableProperty(after);
-                                break;
-                            case SOS_NAME + "." + UNIT_TABLE:
-                                cache.newUnit(after);
-                                break;
-                            case SOS_NAME + "." + FEATUREOFINTEREST_TABLE:
-                                cache.newFeature(after);
-                                break;
-                            case SOS_NAME + "." + NUMERICVALUE_TABLE:
-                                JsonNode source = payload.path("source");
-                                if (!source.isMissingNode()) {
-                                    JsonNode snapshot = source.path("snapshot");
-                                    if (snapshot.asBoolean()) {
-                                        LOG.debug("got a snapshot value, ignoring");
-                                    }
-                                    else {
-                                        Value val = Value.fromJson(after);
-                                        sendEnrichedMeasurement(val);
-                                    }
-                                }
-                                break;
-                            default:
-                                break;
-                        }
+                if (metadataConsumer != null) {
+                    refreshMetadataAssignment();
+                    process(metadataConsumer.poll(0), false);
+                    checkMetadataCaughtUp();
+                }
+                ConsumerRecords<byte[], ChangeEvent<?>> records = consumer.poll(
+                        metadataConsumer != null || valuesPaused ? SCALE_OUT_POLL_TIMEOUT : POLL_TIMEOUT);
+                pollBatchSize.record(records.count());
+                expirePendingValues();
+                if (backfill != null) {
+                    backfill.maintain();
+                }
+                process(records, offsets != null);
+                applyBackpressure();
 
-                    } catch (IOException | NullPointerException ex) {
-                        LOG.warn("Error processing database update: " + ex.getMessage());
-                        LOG.debug("Value causing below exception: " + record.value(), ex);
-                    }
+                if (offsets != null && System.currentTimeMillis() - lastCommit >= commitInterval) {
+                    commitAsync();
+                }
 
+                if (snapshot != null && System.currentTimeMillis() - lastSnapshot >= snapshotInterval) {
+                    writeSnapshotAsync();
                 }
             }
         } catch (WakeupException e) {
@@ -194,7 +344,349 @@ public class KafkaSosConsumer implements Runnable {
              * ignore for shutdown
              */
         } finally {
+            if (snapshot != null) {
+                awaitSnapshotWrite();
+                snapshotWriter.shutdown();
+                writeSnapshot(capturePositions());
+            }
+            closeProducers();
+            if (offsets != null) {
+                commitSync();
+            }
             consumer.close();
+            if (metadataConsumer != null) {
+                metadataConsumer.close();
+            }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+        }
+    }
+
+    /**
+     * @param records the records to apply to the cache or to send
+     * @param tracked true if the offsets of the records have to be tracked for at-least-once commits
+     */
+    private void process(ConsumerRecords<byte[], ChangeEvent<?>> records, boolean tracked) {
+        for (ConsumerRecord<byte[], ChangeEvent<?>> record : records) {
+            ChangeEvent<?> event = record.value();
+            if (event == null) {
+                continue;
+            }
+
+            OffsetTracker.Completion completion = tracked
+                    ? offsets.begin(new TopicPartition(record.topic(), record.partition()), record.offset())
+                    : null;
+            try {
+                switch (record.topic()) {
+                    case SOS_NAME + "." + OBSERVATION_TABLE:
+                        Observation observation = (Observation) event.getAfter();
+                        cache.newObservation(observation);
+                        sendEnrichedMeasurements(pendingValues.observationAvailable(observation.getId()));
+                        if (backfill != null) {
+                            backfill.observationAvailable(observation.getId());
+                        }
+                        break;
+                    case SOS_NAME + "." + SERIES_TABLE:
+                        Series series = (Series) event.getAfter();
+                        cache.newSeries(series);
+                        sendEnrichedMeasurements(pendingValues.seriesAvailable(series.getId()));
+                        if (backfill != null) {
+                            backfill.seriesAvailable(series.getId());
+                        }
+                        break;
+                    case SOS_NAME + "." + PROCEDURE_TABLE:
+                        cache.newProcedure((Procedure) event.getAfter());
+                        break;
+                    case SOS_NAME + "." + OFFERING_TABLE:
+                        initializeProducer(cache.newOffering((Offering) event.getAfter()));
+                        break;
+                    case SOS_NAME + "." + OBSERVABLEPROPERTY_TABLE:
+                        cache.newObservableProperty((ObservableProperty) event.getAfter());
+                        break;
+                    case SOS_NAME + "." + UNIT_TABLE:
+                        cache.newUnit((Unit) event.getAfter());
+                        break;
+                    case SOS_NAME + "." + FEATUREOFINTEREST_TABLE:
+                        cache.newFeature((Feature) event.getAfter());
+                        break;
+                    case SOS_NAME + "." + NUMERICVALUE_TABLE:
+                        if (event.isSnapshot() && backfill != null) {
+                            backfill.submit((Value) event.getAfter(), completion);
+                            completion = null;
+                        }
+                        else if (event.isSnapshot()) {
+                            LOG.debug("got a snapshot value, ignoring");
+                        }
+                        else {
+                            sendEnrichedMeasurement((Value) event.getAfter(), completion);
+                            completion = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+
+            } catch (RuntimeException ex) {
+                LOG.warn("Error processing database update: " + ex.getMessage());
+                LOG.debug("Value causing below exception: " + event, ex);
+            }
+            complete(completion);
+        }
+    }
+
+    /**
+     * Pauses the value partitions once a stripe of the enrichment executor
+     * or of the snapshot backfill has queued more than the high watermark or
+     * a producer has exhausted its in-flight window, and resumes them when
+     * all stripes have drained below the low watermark and all windows to
+     * half. Metadata partitions are never paused, so that parked values are
+     * still released.
+     */
+    private void applyBackpressure() {
+        int depth = executor.getMaxQueueDepth();
+        if (backfill != null) {
+            depth = Math.max(depth, backfill.getMaxQueueDepth());
+        }
+        if (!valuesPaused && (depth >= queueHighWatermark || producersSaturated())) {
+            valuesPaused = true;
+            backpressurePauses.increment();
+            consumer.pause(valuePartitions(consumer.assignment()));
+            LOG.info("Enrichment queue at {} tasks, {} records in flight, pausing the value partitions",
+                    depth, producersInFlight());
+        }
+        else if (valuesPaused && depth <= queueLowWatermark && producersDrained()) {
+            valuesPaused = false;
+            if (metadataCaughtUp) {
+                consumer.resume(valuePartitions(consumer.assignment()));
+            }
+            LOG.info("Enrichment queue at {} tasks, {} records in flight, resuming the value partitions",
+                    depth, producersInFlight());
+        }
+    }
+
+    /**
+     * In scale-out mode the value partitions stay paused until the metadata
+     * consumer has reached the end offsets of the metadata partitions
+     * captured at startup. Otherwise the values of the initial load would be
+     * parked (or dropped, once the pending buffer overflows) only because
+     * the metadata has not been read yet.
+     */
+    private void checkMetadataCaughtUp() {
+        if (metadataCaughtUp || metadataEndOffsets == null) {
+            return;
+        }
+        metadataEndOffsets.entrySet().removeIf(e -> metadataConsumer.position(e.getKey()) >= e.getValue());
+        if (metadataEndOffsets.isEmpty()) {
+            metadataCaughtUp = true;
+            LOG.info("Metadata partitions caught up with their startup end offsets");
+            if (!valuesPaused) {
+                consumer.resume(valuePartitions(consumer.assignment()));
+            }
+        }
+    }
+
+    private boolean producersSaturated() {
+        if (backfill != null && backfill.isProducerSaturated()) {
+            return true;
+        }
+        if (producerPool != null) {
+            return producerPool.isSaturated();
+        }
+        return ownProducers().anyMatch(PooledProducer::isSaturated);
+    }
+
+    private boolean producersDrained() {
+        if (backfill != null && !backfill.isProducerDrained()) {
+            return false;
+        }
+        if (producerPool != null) {
+            return producerPool.isDrained();
+        }
+        return ownProducers().allMatch(PooledProducer::isDrained);
+    }
+
+    private long producersInFlight() {
+        if (producerPool != null) {
+            return producerPool.getInFlight();
+        }
+        return ownProducers().mapToLong(PooledProducer::getInFlight).sum();
+    }
+
+    private Stream<PooledProducer> ownProducers() {
+        return producers.values().stream()
+                .map(SosOfferingProducer::getProducer)
+                .filter(Objects::nonNull);
+    }
+
+    private static List<TopicPartition> valuePartitions(Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(p -> p.topic().equals(SOS_NAME + "." + NUMERICVALUE_TABLE))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Assigns all partitions of the metadata topics to the metadata
+     * consumer. Topics are created by Debezium on the first change of a
+     * table, so the assignment is refreshed periodically. New partitions
+     * are read from the beginning or from the offset of the cache snapshot.
+     * The end offsets of the first assignment are the catch-up target of
+     * {@link #checkMetadataCaughtUp()}.
+     */
+    private void refreshMetadataAssignment() {
+        long now = System.currentTimeMillis();
+        if (now - lastAssignmentRefresh < assignmentRefreshInterval) {
+            return;
+        }
+        lastAssignmentRefresh = now;
+
+        Set<TopicPartition> current = metadataConsumer.assignment();
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (String table : tables) {
+            if (table.equals(NUMERICVALUE_TABLE)) {
+                continue;
+            }
+            List<PartitionInfo> infos = metadataConsumer.partitionsFor(SOS_NAME + "." + table);
+            if (infos != null) {
+                infos.forEach(info -> partitions.add(new TopicPartition(info.topic(), info.partition())));
+            }
+        }
+        if (metadataEndOffsets == null) {
+            metadataEndOffsets = new HashMap<>(metadataConsumer.endOffsets(partitions));
+            LOG.info("Pausing the value partitions until the metadata reaches {}", metadataEndOffsets);
+        }
+        if (partitions.equals(current)) {
+            return;
+        }
+
+        metadataConsumer.assign(partitions);
+        List<TopicPartition> added = partitions.stream()
+                .filter(p -> !current.contains(p))
+                .collect(Collectors.toList());
+        List<TopicPartition> fromBeginning = new ArrayList<>();
+        for (TopicPartition partition : added) {
+            Long offset = snapshotOffsets.remove(partition);
+            if (offset != null) {
+                metadataConsumer.seek(partition, offset);
+            }
+            else {
+                fromBeginning.add(partition);
+            }
+        }
+        metadataConsumer.seekToBeginning(fromBeginning);
+        LOG.info("Reading metadata partitions {}", added);
+    }
+
+    private void startMetricsServer() {
+        int port = settings.getInt("metrics.httpPort", 0);
+        if (port > 0) {
+            try {
+                metricsServer = new MetricsHttpServer(metrics, port);
+            } catch (IOException ex) {
+                LOG.warn("Could not start metrics endpoint: " + ex.getMessage());
+                LOG.debug(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void restoreSnapshot() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            snapshotOffsets.putAll(snapshot.load(cache));
+            cache.getOfferings().values().forEach(this::initializeProducer);
+        } catch (IOException ex) {
+            LOG.warn("Could not restore cache snapshot, starting with an empty cache: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        }
+        lastSnapshot = System.currentTimeMillis();
+    }
+
+    /**
+     * Metadata partitions continue right after the records contained in the
+     * restored snapshot, so that changes made while the consumer was down
+     * are replayed on top of it. Values continue at the committed offset.
+     */
+    private void resumeFromSnapshot(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            Long offset = snapshotOffsets.remove(partition);
+            if (offset != null && !partition.topic().equals(SOS_NAME + "." + NUMERICVALUE_TABLE)) {
+                LOG.info("Resuming {} at offset {} of the cache snapshot", partition, offset);
+                consumer.seek(partition, offset);
+            }
+        }
+    }
+
+    /**
+     * Writes the cache on a background thread, along with the positions of
+     * the metadata partitions captured on the poll thread beforehand. The
+     * cache contains all records up to these positions and possibly some
+     * later ones, which are applied once more after a restore. A snapshot
+     * still being written is not interrupted, the next one is skipped.
+     */
+    private void writeSnapshotAsync() {
+        lastSnapshot = System.currentTimeMillis();
+        if (snapshotWrite != null && !snapshotWrite.isDone()) {
+            LOG.info("Previous cache snapshot is still being written, skipping this one");
+            return;
+        }
+        Map<TopicPartition, Long> positions = capturePositions();
+        snapshotWrite = snapshotWriter.submit(() -> writeSnapshot(positions));
+    }
+
+    private void awaitSnapshotWrite() {
+        if (snapshotWrite == null) {
+            return;
+        }
+        try {
+            snapshotWrite.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOG.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private Map<TopicPartition, Long> capturePositions() {
+        Map<TopicPartition, Long> positions = new HashMap<>();
+        KafkaConsumer<byte[], ChangeEvent<?>> source = metadataConsumer != null ? metadataConsumer : consumer;
+        for (TopicPartition partition : source.assignment()) {
+            if (!partition.topic().equals(SOS_NAME + "." + NUMERICVALUE_TABLE)) {
+                positions.put(partition, source.position(partition));
+            }
+        }
+        return positions;
+    }
+
+    private void writeSnapshot(Map<TopicPartition, Long> positions) {
+        try {
+            snapshot.write(cache, positions);
+        } catch (IOException ex) {
+            LOG.warn("Could not write cache snapshot: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private void closeProducers() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            LOG.warn(ex.getMessage());
+        }
+        if (backfill != null) {
+            backfill.close();
+        }
+        sender.close();
+        topicProvisioner.close();
+        producers.values().forEach(SosOfferingProducer::close);
+        if (producerPool != null) {
+            producerPool.close();
         }
     }
 
@@ -202,109 +694,191 @@ public class KafkaSosConsumer implements Runnable {
         consumer.wakeup();
     }
 
-    private void initializeDebeziumConnector() throws IOException {
-        LOG.info("initializeDebeziumConnector");
-        Map<String, Object> map = new HashMap<>();
-        map.put("name", "sos-connector");
-
-        Map<String, Object> config = new HashMap<>();
-        config.put("connector.class", "io.debezium.connector.postgresql.PostgresConnector");
-        config.put("database.hostname", this.kafkaConnectSettings.getProperty("database.hostname", "postgres"));
-        config.put("database.port", this.kafkaConnectSettings.getProperty("database.port", "5432"));
-        config.put("database.user", this.kafkaConnectSettings.getProperty("database.user", "postgres"));
-        config.put("database.password", this.kafkaConnectSettings.getProperty("database.password", "postgres"));
-        config.put("database.dbname", this.kafkaConnectSettings.getProperty("database.dbname", "postgres"));
-        config.put("database.server.name", SOS_NAME);
-        config.put("snapshot.mode", this.kafkaConnectSettings.getProperty("snapshot.mode", "never"));
-        config.put("schema.whitelist", SOS_DB_SCHEMA);
-        config.put("table.blacklist", "public.geography_columns,public.geometry_columns,public.raster_columns,public.raster_overviews");
-
-        map.put("config", config);
-
-        String jsonNode = mapper.valueToTree(map).toString();
-        HttpResponse response = Request.Post(this.kafkaConnectRestBaseUrl + "connectors/")
-                .bodyString(jsonNode, ContentType.APPLICATION_JSON)
-                .execute()
-                .returnResponse();
-        
-        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CONFLICT) {
-            //connector was there before, delete it and then retry
-            LOG.info("Connector is already installed, deleting first.");
-            StatusLine deleteResponse = Request.Delete(this.kafkaConnectRestBaseUrl + "connectors/" + map.get("name"))
-                    .execute()
-                    .returnResponse()
-                    .getStatusLine();
-            if (deleteResponse.getStatusCode() < HttpStatus.SC_MULTIPLE_CHOICES) {
-                String retryResponse = Request.Post(this.kafkaConnectRestBaseUrl + "connectors/")
-                        .bodyString(jsonNode, ContentType.APPLICATION_JSON)
-                        .execute()
-                        .returnContent()
-                        .asString();
-                LOG.info("Response from kafka connect: " + retryResponse);
+    /**
+     * Values are routed by series so that the measurements of a series are
+     * sent in order. A value whose observation is not known yet is parked
+     * right here on the poll thread, which also applies the observations,
+     * and is routed once the observation has arrived.
+     */
+    private void sendEnrichedMeasurement(Value val, OffsetTracker.Completion completion) {
+        Observation obs = cache.getObservationStore().get(val.getObservationId());
+        if (obs == null) {
+            ObservationNotAvailableException missing = new ObservationNotAvailableException(
+                    "Observation not available for id: " + val.getObservationId(),
+                    ObservationNotAvailableException.MissingEntity.OBSERVATION, val.getObservationId());
+            if (park(val, missing, completion)) {
+                return;
             }
-            else {
-                throw new IOException("Could not delete old sos-connector");
+            obs = cache.getObservationStore().get(val.getObservationId());
+            if (obs == null) {
+                LOG.warn("Could not send enriched observation: {}", missing.getMessage());
+                valuesDropped.increment();
+                complete(completion);
+                return;
             }
         }
-        else if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_MULTIPLE_CHOICES) {
-            String responseString = EntityUtils.toString(response.getEntity());
-            throw new IOException(responseString);
+        executor.execute(obs.getSeriesId(), () -> enrichAndSend(val, completion));
+    }
+
+    /**
+     * @return true if the value has been parked until the missing row arrives, false if the row is
+     * available already
+     */
+    private boolean park(Value val, ObservationNotAvailableException missing, OffsetTracker.Completion completion) {
+        if (completion != null) {
+            /*
+             * registered before parking the value, as it might be
+             * released right away
+             */
+            pendingCompletions.put(val, completion);
         }
-        else {
-            String responseString = EntityUtils.toString(response.getEntity());
-            LOG.info("Response from kafka connect: " + responseString);
+        if (pendingValues.add(val, missing, id -> cache.isAvailable(missing.getMissingEntity(), id))) {
+            valuesParked.increment();
+            return true;
         }
-        
+        pendingCompletion(val);
+        return false;
     }
 
-    private void sendEnrichedMeasurement(Value val) {
-        executor.submit(() -> {
-            boolean success = false;
-            int retries = 0;
-            while (!success && retries++ < 3) {
-                try {
-                    MeasurementObservation mo = MeasurementObservation.fromValue(val, cache);
-                    Offering targetOffering = cache.resolveOffering(mo);
-                    
-                    LOG.info("new measurement for offering '{}': {}", targetOffering, mo);
-                    
-                    SosOfferingProducer targetProducer = this.producers.get(targetOffering.getId());
-                    if (targetProducer != null) {
-                        targetProducer.newMeasurement(mo);
-                    }
-                    else {
-                        LOG.info("no producer available for offering: {}", targetOffering.getIdentifier());
-                    }
-                    success = true;
-                } catch (ObservationNotAvailableException | JsonProcessingException ex) {
-                    LOG.debug("Could not send enriched observation: " + ex.getMessage());
-                    LOG.trace(ex.getMessage(), ex);
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex1) {
-                        LOG.debug(ex1.getMessage(), ex1);
-                    }
+    private static void complete(OffsetTracker.Completion completion) {
+        if (completion != null) {
+            completion.complete();
+        }
+    }
+
+    private OffsetTracker.Completion pendingCompletion(Value val) {
+        return pendingCompletions != null ? pendingCompletions.remove(val) : null;
+    }
+
+    /**
+     * Commits the acknowledged positions without waiting for the response.
+     * Commits are batched by {@link #commitInterval}.
+     */
+    private void commitAsync() {
+        Map<TopicPartition, OffsetAndMetadata> committable = offsets.getCommittable();
+        if (!committable.isEmpty()) {
+            consumer.commitAsync(committable, (committed, ex) -> {
+                if (ex == null) {
+                    offsets.committed(committed);
+                }
+                else {
+                    LOG.warn("Could not commit offsets: {}", ex.getMessage());
                 }
+            });
+        }
+        lastCommit = System.currentTimeMillis();
+    }
+
+    private void commitSync() {
+        Map<TopicPartition, OffsetAndMetadata> committable = offsets.getCommittable();
+        if (committable.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.commitSync(committable);
+            offsets.committed(committable);
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not commit offsets: {}", ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private void sendEnrichedMeasurements(List<Value> values) {
+        if (!values.isEmpty()) {
+            LOG.debug("releasing {} pending values", values.size());
+            values.forEach(val -> sendEnrichedMeasurement(val, pendingCompletion(val)));
+        }
+    }
+
+    private void enrichAndSend(Value val, OffsetTracker.Completion completion) {
+        int attempts = 0;
+        while (attempts++ < 3) {
+            if (attempts > 1) {
+                enrichmentRetries.increment();
             }
+            try {
+                long start = System.nanoTime();
+                MeasurementObservation mo;
+                try {
+                    mo = MeasurementObservation.fromValue(val, cache);
+                } finally {
+                    enrichmentTime.recordSince(start);
+                }
+                Offering targetOffering = cache.resolveOffering(mo);
+
+                LOG.debug("new measurement for offering '{}': {}", targetOffering, mo);
 
-            if (!success) {
-                LOG.warn("Could not send enriched observation. See related debug/trace-level logs above");
+                SosOfferingProducer targetProducer = targetOffering != null
+                        ? this.producers.get(targetOffering.getId())
+                        : null;
+                if (targetProducer != null) {
+                    sender.send(targetProducer, mo, completion, null);
+                }
+                else {
+                    LOG.info("no producer available for offering: {}", mo.getSeries().getOfferingId());
+                    valuesWithoutProducer.increment();
+                    complete(completion);
+                }
+                cache.observationEmitted(val.getObservationId());
+                return;
+            } catch (ObservationNotAvailableException ex) {
+                LOG.debug("Enriched observation not yet available: " + ex.getMessage());
+                LOG.trace(ex.getMessage(), ex);
+                if (park(val, ex, completion)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                LOG.warn("Could not send enriched observation: " + ex.getMessage());
+                LOG.debug(ex.getMessage(), ex);
+                valuesDropped.increment();
+                complete(completion);
+                return;
             }
-        });
+        }
+
+        LOG.warn("Could not send enriched observation. See related debug/trace-level logs above");
+        valuesDropped.increment();
+        complete(completion);
+    }
+
+    private void expirePendingValues() {
+        cache.getObservationStore().expire();
+        List<Value> expired = pendingValues.expire();
+        if (!expired.isEmpty()) {
+            LOG.warn("Dropped {} values whose observation did not become available in time", expired.size());
+            LOG.debug("Dropped values: {}", expired);
+            valuesDropped.add(expired.size());
+            expired.forEach(val -> complete(pendingCompletion(val)));
+        }
     }
     
+    /**
+     * Registers the producer of an offering right away. Its topic is created
+     * by the {@link TopicProvisioner} in the background, measurements are
+     * queued by the producer until the topic is ready. An update of an
+     * offering keeps its producer, the topic does not depend on the updated
+     * columns.
+     */
     private void initializeProducer(Offering off) {
-        SosOfferingProducer prod = new SosOfferingProducer(off, this.bootstrapServers);
+        if (this.producers.containsKey(off.getId())) {
+            LOG.debug("Offering {} updated, keeping its producer", off.getId());
+            return;
+        }
         try {
-            prod.initialize();
+            SosOfferingProducer prod = new SosOfferingProducer(off, this.bootstrapServers, this.settings,
+                    this.producerPool != null ? this.producerPool.forOffering(off.getId()) : null,
+                    this.codecs.forOffering(off.getId()), this.metrics);
+            prod.initialize(this.topicProvisioner);
             this.producers.put(off.getId(), prod);
+            if (this.backfill != null) {
+                this.backfill.offeringAvailable(off.getId());
+            }
         } catch (IOException ex) {
-            LOG.warn("Could not create producer", ex.getMessage());
+            LOG.warn("Could not create producer: {}", ex.getMessage());
             LOG.debug(ex.getMessage(), ex);
         }
-        
     }
-    
+
     public List<String> getOfferingIdentifiers() {
         return this.producers.values().stream()
                 .map(p -> p.getOfferingId())
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.KStreamBuilder;
+import org.n52.kafka.sos.codec.MeasurementCodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Alternative to {@link KafkaSosConsumer} running the enrichment as a
+ * Kafka Streams application (see {@link EnrichmentTopology}). Instances
+ * sharing the same application id split the partitions of the value and
+ * observation topics between them; state is kept in local stores backed
+ * by changelog topics and can be replicated to standby instances. The
+ * enriched measurements are written by Kafka Streams itself, to the single
+ * topic <code>streams.outputTopic</code> keyed by offering id and encoded
+ * with the codec of the <code>codec</code> setting, rather than to the
+ * per-offering topics of {@link KafkaSosConsumer}. Downstream consumers
+ * have to be set up for the engine in use.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class KafkaSosStreams implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaSosStreams.class.getName());
+
+    private final String applicationId;
+    private final String kafkaConnectRestBaseUrl;
+    private final Settings settings;
+    private final EnrichmentTopology topology;
+    private final KafkaStreams streams;
+    private final TopicProvisioner topicProvisioner;
+
+    public KafkaSosStreams(String applicationId, String bootstrapServers, String kafkaConnectRestBaseUrl,
+            Properties settings) {
+        this.applicationId = applicationId;
+        this.kafkaConnectRestBaseUrl = kafkaConnectRestBaseUrl;
+        this.settings = new Settings(settings);
+        this.topicProvisioner = new TopicProvisioner(bootstrapServers, this.settings);
+        this.topology = new EnrichmentTopology(applicationId, this.settings);
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.ByteArray().getClass().getName());
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.ByteArray().getClass().getName());
+        props.put(StreamsConfig.NUM_STREAM_THREADS_CONFIG, this.settings.getInt("streams.threads", 1));
+        props.put(StreamsConfig.NUM_STANDBY_REPLICAS_CONFIG, this.settings.getInt("streams.standbyReplicas", 0));
+        props.put(StreamsConfig.REPLICATION_FACTOR_CONFIG, this.settings.getInt("streams.replicationFactor", 1));
+        String stateDir = this.settings.getString("streams.stateDir", null);
+        if (stateDir != null) {
+            props.put(StreamsConfig.STATE_DIR_CONFIG, stateDir);
+        }
+
+        KStreamBuilder builder = new KStreamBuilder();
+        this.topology.build(builder, new MeasurementCodecs(this.settings));
+        LOG.info("Writing the measurements of all offerings to {}, encoded with codec '{}'",
+                this.topology.getOutputTopic(), this.topology.getCodecName());
+        this.streams = new KafkaStreams(builder, props);
+        this.streams.setUncaughtExceptionHandler((thread, ex) -> {
+            LOG.warn("Stream thread {} died: {}", thread.getName(), ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            createTopics();
+        } catch (IOException ex) {
+            LOG.error("Could not initialize streams application: " + ex.getMessage());
+            LOG.debug(ex.getMessage(), ex);
+            return;
+        }
+
+        this.streams.start();
+        LOG.info("Started streams application '{}'", this.applicationId);
+
+        new DebeziumConnector(this.kafkaConnectRestBaseUrl, this.settings).initializeAsync()
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        LOG.error("Could not initialize debezium connector: " + ex.getMessage());
+                        LOG.debug(ex.getMessage(), ex);
+                    }
+                });
+    }
+
+    public void shutdown() {
+        this.streams.close();
+        this.topicProvisioner.close();
+    }
+
+    /**
+     * The re-keyed metadata topics and the output topic are regular topics
+     * and therefore not created by Kafka Streams.
+     */
+    private void createTopics() throws IOException {
+        String replicationFactor = Integer.toString(this.settings.getInt("streams.replicationFactor", 1));
+        Map<String, String> configs = Collections.singletonMap("cleanup.policy", "compact");
+        CompletableFuture<?>[] created = this.topology.getMetadataTopics().stream()
+                .map(t -> this.topicProvisioner.provision(t, 1, replicationFactor, configs))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture<Void> output = this.topicProvisioner.provision(this.topology.getOutputTopic(),
+                this.settings.getInt("offeringTopic.partitions", 1),
+                this.settings.getString("offeringTopic.replicationFactor", "1"));
+        try {
+            CompletableFuture.allOf(created).get();
+            output.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not create the metadata and output topics", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KafkaSosStreams{" + "applicationId=" + applicationId + '}';
+    }
+
+}
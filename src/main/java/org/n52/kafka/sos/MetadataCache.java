@@ -18,8 +18,11 @@ package org.n52.kafka.sos;
 
 import org.n52.kafka.sos.model.Procedure;
 import com.fasterxml.jackson.databind.JsonNode;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.BaseEntity;
 import org.n52.kafka.sos.model.Feature;
 import org.n52.kafka.sos.model.MeasurementObservation;
 import org.n52.kafka.sos.model.ObservableProperty;
@@ -31,6 +34,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * In-memory copy of the SOS metadata tables. The cache is updated by a
+ * single thread (the poll loop) and is safe to be read concurrently by
+ * the enrichment threads; lookups do not acquire locks.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
@@ -38,89 +44,315 @@ public class MetadataCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class.getName());
 
-    private final Map<Integer, Observation> observations = new HashMap<>();
-    private final Map<Integer, Series> series = new HashMap<>();
-    private final Map<Integer, Procedure> procedures = new HashMap<>();
-    private final Map<Integer, Offering> offerings = new HashMap<>();
-    private final Map<Integer, ObservableProperty> observableProperties = new HashMap<>();
-    private final Map<Integer, Unit> units = new HashMap<>();
-    private final Map<Integer, Feature> features = new HashMap<>();
+    private final ObservationStore observations;
+    private final ConcurrentIntObjectMap<Series> series = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Procedure> procedures = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Offering> offerings = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<ObservableProperty> observableProperties = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Unit> units = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<Feature> features = new ConcurrentIntObjectMap<>();
+
+    /*
+     * immutable snapshots of the series joined with their metadata. The
+     * generation is incremented on every metadata change to detect
+     * snapshots that have been built from outdated metadata.
+     */
+    private final ConcurrentIntObjectMap<Series> enrichedSeries = new ConcurrentIntObjectMap<>();
+    private final AtomicLong metadataGeneration = new AtomicLong();
+
+    private final LookupStats observationStats;
+    private final LookupStats enrichedSeriesStats;
+    private final LookupStats seriesStats;
+    private final LookupStats unitStats;
+    private final LookupStats featureStats;
+    private final LookupStats observablePropertyStats;
+    private final LookupStats procedureStats;
+    private final LookupStats offeringStats;
+
+    public MetadataCache() {
+        this(new ObservationStore());
+    }
+
+    public MetadataCache(ObservationStore observations) {
+        this(observations, new PipelineMetrics());
+    }
+
+    /**
+     * @param observations the store of the observation rows
+     * @param metrics the registry of the hit and miss counters of the lookups
+     */
+    public MetadataCache(ObservationStore observations, PipelineMetrics metrics) {
+        this.observations = observations;
+        this.observationStats = new LookupStats(metrics, "observation");
+        this.enrichedSeriesStats = new LookupStats(metrics, "enrichedSeries");
+        this.seriesStats = new LookupStats(metrics, "series");
+        this.unitStats = new LookupStats(metrics, "unit");
+        this.featureStats = new LookupStats(metrics, "feature");
+        this.observablePropertyStats = new LookupStats(metrics, "observableProperty");
+        this.procedureStats = new LookupStats(metrics, "procedure");
+        this.offeringStats = new LookupStats(metrics, "offering");
+        metrics.gauge("cache.observation.size", observations::size);
+        metrics.gauge("cache.series.size", series::size);
+    }
 
     void newObservation(JsonNode json) {
-        Observation obs = Observation.fromJson(json);
-        LOG.info("newObservation " + obs);
-        this.observations.put(obs.getId(), obs);
+        newObservation(Observation.fromJson(json));
+    }
+
+    void newObservation(Observation obs) {
+        LOG.debug("newObservation {}", obs);
+        this.observations.put(obs);
     }
 
     void newSeries(JsonNode json) {
-        Series series = Series.fromJson(json);
+        newSeries(Series.fromJson(json));
+    }
+
+    void newSeries(Series series) {
         LOG.info("newSeries " + series);
         this.series.put(series.getId(), series);
+        invalidateEnrichedSeries(series.getId());
     }
 
     public Procedure newProcedure(JsonNode json) {
-        Procedure proc = Procedure.fromJson(json);
+        return newProcedure(Procedure.fromJson(json));
+    }
+
+    public Procedure newProcedure(Procedure proc) {
         LOG.info("newProcedure " + proc);
         this.procedures.put(proc.getId(), proc);
+        invalidateEnrichedSeries();
         return proc;
     }
 
     public Offering newOffering(JsonNode json) {
-        Offering off = Offering.fromJson(json);
+        return newOffering(Offering.fromJson(json));
+    }
+
+    public Offering newOffering(Offering off) {
         LOG.info("newOffering " + off);
         this.offerings.put(off.getId(), off);
         return off;
     }
 
     void newObservableProperty(JsonNode json) {
-        ObservableProperty obsp = ObservableProperty.fromJson(json);
+        newObservableProperty(ObservableProperty.fromJson(json));
+    }
+
+    void newObservableProperty(ObservableProperty obsp) {
         LOG.info("newObservableProperty " + obsp);
         this.observableProperties.put(obsp.getId(), obsp);
+        invalidateEnrichedSeries();
     }
 
     void newUnit(JsonNode json) {
-        Unit unit = Unit.fromJson(json);
+        newUnit(Unit.fromJson(json));
+    }
+
+    void newUnit(Unit unit) {
         LOG.info("newUnit " + unit);
         this.units.put(unit.getId(), unit);
+        invalidateEnrichedSeries();
     }
 
     void newFeature(JsonNode json) {
-        Feature feature = Feature.fromJson(json);
+        newFeature(Feature.fromJson(json));
+    }
+
+    void newFeature(Feature feature) {
         LOG.info("newFeature " + feature);
         this.features.put(feature.getId(), feature);
+        invalidateEnrichedSeries();
+    }
+
+    /**
+     * Adds a row read from a {@link CacheSnapshot}. In contrast to the
+     * <code>newX</code> methods, restored rows are not logged one by one.
+     *
+     * @param row the row
+     */
+    void restore(BaseEntity row) {
+        if (row instanceof Observation) {
+            this.observations.put((Observation) row);
+        }
+        else if (row instanceof Series) {
+            this.series.put(row.getId(), (Series) row);
+            invalidateEnrichedSeries(row.getId());
+        }
+        else if (row instanceof Procedure) {
+            this.procedures.put(row.getId(), (Procedure) row);
+            invalidateEnrichedSeries();
+        }
+        else if (row instanceof Offering) {
+            this.offerings.put(row.getId(), (Offering) row);
+        }
+        else if (row instanceof ObservableProperty) {
+            this.observableProperties.put(row.getId(), (ObservableProperty) row);
+            invalidateEnrichedSeries();
+        }
+        else if (row instanceof Unit) {
+            this.units.put(row.getId(), (Unit) row);
+            invalidateEnrichedSeries();
+        }
+        else if (row instanceof Feature) {
+            this.features.put(row.getId(), (Feature) row);
+            invalidateEnrichedSeries();
+        }
     }
 
     public Map<Integer, Observation> getObservations() {
-        return observations;
+        return observations.asMap();
     }
 
     public Map<Integer, Series> getSeries() {
-        return series;
+        return series.asMap();
     }
 
     public Map<Integer, Procedure> getProcedures() {
-        return procedures;
+        return procedures.asMap();
     }
 
     public Map<Integer, Offering> getOfferings() {
-        return offerings;
+        return offerings.asMap();
     }
 
     public Map<Integer, ObservableProperty> getObservableProperties() {
-        return observableProperties;
+        return observableProperties.asMap();
     }
 
     public Map<Integer, Unit> getUnits() {
-        return units;
+        return units.asMap();
     }
 
     public Map<Integer, Feature> getFeatures() {
-        return features;
+        return features.asMap();
+    }
+
+    public Observation getObservation(int id) {
+        return observationStats.count(observations.get(id));
+    }
+
+    /**
+     * Notifies the cache that the value of an observation has been emitted.
+     *
+     * @param id the observation id
+     */
+    public void observationEmitted(int id) {
+        observations.emitted(id);
+    }
+
+    /**
+     * @param entity the kind of the entity
+     * @param id the id of the entity
+     * @return true if the entity is known to the cache
+     */
+    public boolean isAvailable(ObservationNotAvailableException.MissingEntity entity, int id) {
+        switch (entity) {
+            case OBSERVATION:
+                return observations.contains(id);
+            case SERIES:
+                return series.get(id) != null;
+            default:
+                return false;
+        }
+    }
+
+    public ObservationStore getObservationStore() {
+        return observations;
+    }
+
+    public Series getSeries(int id) {
+        return seriesStats.count(series.get(id));
+    }
+
+    /**
+     * @param id the series id
+     * @return the series joined with its unit, feature, observable property
+     * and procedure, or null if the series is not known
+     */
+    public Series getEnrichedSeries(int id) {
+        Series enriched = enrichedSeriesStats.count(enrichedSeries.get(id));
+        if (enriched != null) {
+            return enriched;
+        }
+
+        Series raw = getSeries(id);
+        if (raw == null) {
+            return null;
+        }
+
+        long generation = metadataGeneration.get();
+        enriched = raw.enrich(getUnit(raw.getUnitId()),
+                getFeature(raw.getFeatureId()),
+                getObservableProperty(raw.getObservablePropertyId()),
+                getProcedure(raw.getProcedureId()));
+        enrichedSeries.put(id, enriched);
+        if (metadataGeneration.get() != generation) {
+            /*
+             * metadata changed while enriching, the snapshot might be outdated
+             */
+            enrichedSeries.remove(id);
+        }
+        return enriched;
+    }
+
+    private void invalidateEnrichedSeries(int id) {
+        metadataGeneration.incrementAndGet();
+        enrichedSeries.remove(id);
+    }
+
+    private void invalidateEnrichedSeries() {
+        metadataGeneration.incrementAndGet();
+        enrichedSeries.clear();
+    }
+
+    public Procedure getProcedure(int id) {
+        return procedureStats.count(procedures.get(id));
+    }
+
+    public Offering getOffering(int id) {
+        return offeringStats.count(offerings.get(id));
+    }
+
+    public ObservableProperty getObservableProperty(int id) {
+        return observablePropertyStats.count(observableProperties.get(id));
+    }
+
+    public Unit getUnit(int id) {
+        return unitStats.count(units.get(id));
+    }
+
+    public Feature getFeature(int id) {
+        return featureStats.count(features.get(id));
     }
 
     public Offering resolveOffering(MeasurementObservation mo) {
-        int id = mo.getSeries().getOfferingId();
-        return offerings.get(id);
+        return getOffering(mo.getSeries().getOfferingId());
+    }
+
+    /**
+     * Hit and miss counters of the lookups of one entity type.
+     */
+    private static final class LookupStats {
+
+        private final Counter hits;
+        private final Counter misses;
+
+        LookupStats(PipelineMetrics metrics, String entity) {
+            this.hits = metrics.counter("cache." + entity + ".hits");
+            this.misses = metrics.counter("cache." + entity + ".misses");
+        }
+
+        <T> T count(T result) {
+            if (result != null) {
+                hits.increment();
+            }
+            else {
+                misses.increment();
+            }
+            return result;
+        }
+
     }
 
 }
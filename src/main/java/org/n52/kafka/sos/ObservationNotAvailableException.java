@@ -22,8 +22,40 @@ package org.n52.kafka.sos;
  */
 public class ObservationNotAvailableException extends Exception {
 
+    private final MissingEntity missingEntity;
+    private final int missingId;
+
     public ObservationNotAvailableException(String string) {
+        this(string, null, 0);
+    }
+
+    public ObservationNotAvailableException(String string, MissingEntity missingEntity, int missingId) {
         super(string);
+        this.missingEntity = missingEntity;
+        this.missingId = missingId;
+    }
+
+    /**
+     * @return the type of the row that was not available or null if unknown
+     */
+    public MissingEntity getMissingEntity() {
+        return missingEntity;
+    }
+
+    /**
+     * @return the id of the row that was not available
+     */
+    public int getMissingId() {
+        return missingId;
+    }
+
+    public enum MissingEntity {
+        OBSERVATION,
+        SERIES,
+        /**
+         * the producer of the offering has not been initialized yet
+         */
+        OFFERING
     }
 
 }
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.base.MoreObjects;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.n52.kafka.sos.model.Observation;
+
+/**
+ * Bounded store for the rows of the observation table. In contrast to the
+ * other metadata tables the observation table grows with every inserted
+ * value, so entries are evicted in insertion order once
+ * <ul>
+ * <li>the store holds more than <code>maxEntries</code> observations,</li>
+ * <li>an observation has been held for longer than <code>maxAge</code>, or</li>
+ * <li>the value of the observation has been emitted (if <code>evictOnEmit</code> is set).</li>
+ * </ul>
+ * A <code>maxEntries</code> or <code>maxAge</code> of zero disables the respective limit.
+ * Aged entries are evicted on insertion and by {@link #expire()}, which the
+ * consumer calls once per poll so that they are also dropped while no new
+ * observations arrive.
+ * <p>
+ * Lookups are lock-free and not counted here, the hits and misses are
+ * recorded by {@link MetadataCache#getObservation(int)}; modifications are
+ * serialized.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ObservationStore {
+
+    private static final int INITIAL_QUEUE_CAPACITY = 1024;
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final boolean evictOnEmit;
+
+    private final ConcurrentIntObjectMap<Observation> entries = new ConcurrentIntObjectMap<>();
+
+    /*
+     * ring buffer of the observations in insertion order. A slot is stale
+     * once its observation has been removed on emit or replaced by a newer
+     * row of the same id; stale slots are skipped and do not count against
+     * maxEntries
+     */
+    private Observation[] queueEntries;
+    private long[] queueTimes;
+    private int queueHead;
+    private int queueSize;
+
+    private final LongAdder evictions = new LongAdder();
+
+    public ObservationStore() {
+        this(0, 0, false);
+    }
+
+    public ObservationStore(int maxEntries, long maxAge, TimeUnit unit, boolean evictOnEmit) {
+        this(maxEntries, unit.toMillis(maxAge), evictOnEmit);
+    }
+
+    private ObservationStore(int maxEntries, long maxAgeMillis, boolean evictOnEmit) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.evictOnEmit = evictOnEmit;
+        int queueCapacity = maxEntries > 0 ? maxEntries : INITIAL_QUEUE_CAPACITY;
+        if (isBounded()) {
+            this.queueEntries = new Observation[queueCapacity];
+            this.queueTimes = new long[queueCapacity];
+        }
+    }
+
+    private boolean isBounded() {
+        return maxEntries > 0 || maxAgeMillis > 0;
+    }
+
+    public void put(Observation obs) {
+        put(obs, System.currentTimeMillis());
+    }
+
+    synchronized void put(Observation obs, long now) {
+        expire(now);
+        if (maxEntries > 0) {
+            while (queueSize > 0 && entries.size() >= maxEntries && !entries.containsKey(obs.getId())) {
+                evictHead();
+            }
+        }
+        entries.put(obs.getId(), obs);
+        if (isBounded()) {
+            enqueue(obs, now);
+        }
+    }
+
+    public Observation get(int id) {
+        return entries.get(id);
+    }
+
+    public boolean contains(int id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * Notifies the store that the value of an observation has been emitted.
+     *
+     * @param id the observation id
+     */
+    public synchronized void emitted(int id) {
+        if (evictOnEmit && entries.remove(id) != null) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Evicts the observations held for longer than <code>maxAge</code>.
+     */
+    public void expire() {
+        if (maxAgeMillis > 0) {
+            expire(System.currentTimeMillis());
+        }
+    }
+
+    synchronized void expire(long now) {
+        if (maxAgeMillis <= 0) {
+            return;
+        }
+        while (queueSize > 0 && queueTimes[queueHead] < now - maxAgeMillis) {
+            evictHead();
+        }
+    }
+
+    private void enqueue(Observation obs, long now) {
+        if (queueSize == queueEntries.length) {
+            compactQueue();
+        }
+        int tail = (queueHead + queueSize) % queueEntries.length;
+        queueEntries[tail] = obs;
+        queueTimes[tail] = now;
+        queueSize++;
+    }
+
+    private boolean isStale(Observation queued) {
+        return entries.get(queued.getId()) != queued;
+    }
+
+    private void evictHead() {
+        Observation head = queueEntries[queueHead];
+        if (!isStale(head)) {
+            entries.remove(head.getId());
+            evictions.increment();
+        }
+        queueEntries[queueHead] = null;
+        queueHead = (queueHead + 1) % queueEntries.length;
+        queueSize--;
+    }
+
+    /**
+     * Drops the stale slots of a full queue, growing it only if all slots
+     * are still in use.
+     */
+    private void compactQueue() {
+        int live = 0;
+        for (int i = 0; i < queueSize; i++) {
+            if (!isStale(queueEntries[(queueHead + i) % queueEntries.length])) {
+                live++;
+            }
+        }
+        int capacity = live == queueSize ? queueEntries.length << 1 : queueEntries.length;
+        Observation[] compacted = new Observation[capacity];
+        long[] times = new long[capacity];
+        int size = 0;
+        for (int i = 0; i < queueSize; i++) {
+            int index = (queueHead + i) % queueEntries.length;
+            if (!isStale(queueEntries[index])) {
+                compacted[size] = queueEntries[index];
+                times[size] = queueTimes[index];
+                size++;
+            }
+        }
+        queueEntries = compacted;
+        queueTimes = times;
+        queueHead = 0;
+        queueSize = size;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return a read-only view of the stored observations
+     */
+    public Map<Integer, Observation> asMap() {
+        return entries.asMap();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", size())
+                .add("maxEntries", maxEntries)
+                .add("maxAgeMillis", maxAgeMillis)
+                .add("evictOnEmit", evictOnEmit)
+                .add("evictions", getEvictions())
+                .toString();
+    }
+
+}
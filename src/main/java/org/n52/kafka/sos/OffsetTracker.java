@@ -0,0 +1,207 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Tracks the completion of consumed records per partition. Records are
+ * registered in offset order by the poll loop ({@link #begin(TopicPartition, long)})
+ * and may be completed in any order and from any thread, typically from
+ * producer callbacks. The committable position of a partition is the
+ * offset of the oldest record that has not been completed yet, so that a
+ * restart only redoes the records that were not acknowledged.
+ * <p>
+ * A record that is never completed (e.g. because its measurement could
+ * not be sent) holds back the committable position of its partition.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionTracker> partitions = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, Long> committed = new HashMap<>();
+
+    /**
+     * @param partition the partition of the record
+     * @param offset the offset of the record, greater than the offsets of all records begun before
+     * @return the handle to complete the record with
+     */
+    public Completion begin(TopicPartition partition, long offset) {
+        PartitionTracker tracker = partitions.computeIfAbsent(partition, p -> new PartitionTracker());
+        tracker.begin(offset);
+        return new Completion(tracker, offset);
+    }
+
+    /**
+     * @return the positions that have advanced since they were last marked
+     * as committed
+     */
+    public Map<TopicPartition, OffsetAndMetadata> getCommittable() {
+        Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+        partitions.forEach((partition, tracker) -> {
+            long position = tracker.position();
+            Long last = committed.get(partition);
+            if (position >= 0 && (last == null || position > last)) {
+                result.put(partition, new OffsetAndMetadata(position));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param offsets the positions that have been committed successfully
+     */
+    public void committed(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        offsets.forEach((partition, offset) -> committed.merge(partition, offset.offset(), Math::max));
+    }
+
+    /**
+     * Stops tracking partitions, e.g. after they have been revoked.
+     * Records of these partitions that complete later are ignored.
+     *
+     * @param revoked the partitions
+     */
+    public void remove(Collection<TopicPartition> revoked) {
+        revoked.forEach(partition -> {
+            partitions.remove(partition);
+            committed.remove(partition);
+        });
+    }
+
+    /**
+     * @return the number of records that have been begun but not completed
+     */
+    public int getPending() {
+        int pending = 0;
+        for (PartitionTracker tracker : partitions.values()) {
+            pending += tracker.pending();
+        }
+        return pending;
+    }
+
+    /**
+     * Completion handle of a single record.
+     */
+    public static final class Completion {
+
+        private final PartitionTracker tracker;
+        private final long offset;
+
+        private Completion(PartitionTracker tracker, long offset) {
+            this.tracker = tracker;
+            this.offset = offset;
+        }
+
+        public void complete() {
+            tracker.complete(offset);
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+    }
+
+    /**
+     * The begun offsets of a partition in a ring buffer. Completed records
+     * are removed from the head as soon as all older records are complete.
+     */
+    static final class PartitionTracker {
+
+        private long[] offsets = new long[64];
+        private boolean[] done = new boolean[64];
+        private int head;
+        private int size;
+        private long next = -1;
+
+        synchronized void begin(long offset) {
+            if (size == offsets.length) {
+                grow();
+            }
+            int index = (head + size) & (offsets.length - 1);
+            offsets[index] = offset;
+            done[index] = false;
+            size++;
+        }
+
+        synchronized void complete(long offset) {
+            int index = indexOf(offset);
+            if (index < 0) {
+                return;
+            }
+            done[index] = true;
+            int mask = offsets.length - 1;
+            while (size > 0 && done[head]) {
+                next = offsets[head] + 1;
+                head = (head + 1) & mask;
+                size--;
+            }
+        }
+
+        /**
+         * @return the offset to resume from, -1 if no record has been completed yet
+         */
+        synchronized long position() {
+            return size > 0 ? offsets[head] : next;
+        }
+
+        synchronized int pending() {
+            return size;
+        }
+
+        private int indexOf(long offset) {
+            int mask = offsets.length - 1;
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long value = offsets[(head + mid) & mask];
+                if (value < offset) {
+                    low = mid + 1;
+                }
+                else if (value > offset) {
+                    high = mid - 1;
+                }
+                else {
+                    return (head + mid) & mask;
+                }
+            }
+            return -1;
+        }
+
+        private void grow() {
+            long[] newOffsets = new long[offsets.length * 2];
+            boolean[] newDone = new boolean[done.length * 2];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) & (offsets.length - 1);
+                newOffsets[i] = offsets[index];
+                newDone[i] = done[index];
+            }
+            offsets = newOffsets;
+            done = newDone;
+            head = 0;
+        }
+
+    }
+
+}
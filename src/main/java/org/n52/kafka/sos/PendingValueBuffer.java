@@ -0,0 +1,275 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.base.MoreObjects;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import org.n52.kafka.sos.model.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds values whose observation or series row (or the producer of whose
+ * offering) has not been received yet. Pending values are indexed by the id
+ * of the missing row and are released as soon as the row becomes available
+ * (see {@link #observationAvailable(int)}, {@link #seriesAvailable(int)} and
+ * {@link #offeringAvailable(int)}). Values are dropped after the configured
+ * time to live or, if the buffer is full, in arrival order.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class PendingValueBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PendingValueBuffer.class.getName());
+
+    private final int capacity;
+    private final long ttlMillis;
+
+    private final IntObjectMap<List<PendingValue>> byObservation = new IntObjectMap<>();
+    private final IntObjectMap<List<PendingValue>> bySeries = new IntObjectMap<>();
+    private final IntObjectMap<List<PendingValue>> byOffering = new IntObjectMap<>();
+    private final ArrayDeque<PendingValue> arrivalOrder = new ArrayDeque<>();
+    private int size;
+    private Consumer<Value> overflowListener = value -> { };
+
+    private final LongAdder released = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    public PendingValueBuffer(int capacity, long ttl, TimeUnit unit) {
+        this.capacity = capacity;
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    /**
+     * @param listener invoked for every value that is dropped because the buffer is full
+     */
+    public void setOverflowListener(Consumer<Value> listener) {
+        this.overflowListener = listener;
+    }
+
+    /**
+     * Parks a value until the row reported as missing becomes available.
+     *
+     * @param value the value
+     * @param missing the reason why the value could not be enriched
+     * @param available checks if the missing row has become available in the meantime
+     * @return false if the missing row is available already, so that the value should be retried
+     * directly, true otherwise
+     */
+    public boolean add(Value value, ObservationNotAvailableException missing, IntPredicate available) {
+        return add(value, missing, available, System.currentTimeMillis());
+    }
+
+    synchronized boolean add(Value value, ObservationNotAvailableException missing, IntPredicate available, long now) {
+        /*
+         * the check has to be done while holding the lock: a row that is
+         * inserted after this point will find the value in the index
+         */
+        if (available.test(missing.getMissingId())) {
+            return false;
+        }
+
+        IntObjectMap<List<PendingValue>> index = indexFor(missing.getMissingEntity());
+        if (index == null) {
+            return false;
+        }
+
+        if (size >= capacity) {
+            PendingValue oldest = pollOldest();
+            if (oldest != null) {
+                overflowed.increment();
+                LOG.warn("Pending value buffer is full, dropping {}", oldest.value);
+                overflowListener.accept(oldest.value);
+            }
+        }
+
+        PendingValue pending = new PendingValue(value, now + ttlMillis, index, missing.getMissingId());
+        List<PendingValue> values = index.get(missing.getMissingId());
+        if (values == null) {
+            values = new ArrayList<>(2);
+            index.put(missing.getMissingId(), values);
+        }
+        values.add(pending);
+        arrivalOrder.add(pending);
+        size++;
+        return true;
+    }
+
+    private IntObjectMap<List<PendingValue>> indexFor(ObservationNotAvailableException.MissingEntity entity) {
+        if (entity == null) {
+            return null;
+        }
+        switch (entity) {
+            case OBSERVATION:
+                return byObservation;
+            case SERIES:
+                return bySeries;
+            case OFFERING:
+                return byOffering;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param id the id of the observation
+     * @return the values that have been waiting for the observation
+     */
+    public synchronized List<Value> observationAvailable(int id) {
+        return release(byObservation.remove(id));
+    }
+
+    /**
+     * @param id the id of the series
+     * @return the values that have been waiting for the series
+     */
+    public synchronized List<Value> seriesAvailable(int id) {
+        return release(bySeries.remove(id));
+    }
+
+    /**
+     * @param id the id of the offering
+     * @return the values that have been waiting for the producer of the offering
+     */
+    public synchronized List<Value> offeringAvailable(int id) {
+        return release(byOffering.remove(id));
+    }
+
+    private List<Value> release(List<PendingValue> pending) {
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+
+        List<Value> result = new ArrayList<>(pending.size());
+        for (PendingValue p : pending) {
+            if (!p.done) {
+                p.done = true;
+                size--;
+                result.add(p.value);
+            }
+        }
+        released.add(result.size());
+        return result;
+    }
+
+    /**
+     * Drops all values that have exceeded their time to live.
+     *
+     * @return the dropped values
+     */
+    public List<Value> expire() {
+        return expire(System.currentTimeMillis());
+    }
+
+    synchronized List<Value> expire(long now) {
+        List<Value> result = null;
+        PendingValue head;
+        while ((head = arrivalOrder.peek()) != null) {
+            if (head.done) {
+                arrivalOrder.poll();
+                continue;
+            }
+            if (head.deadline > now) {
+                break;
+            }
+            pollOldest();
+            if (result == null) {
+                result = new ArrayList<>();
+            }
+            result.add(head.value);
+        }
+
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        expired.add(result.size());
+        return result;
+    }
+
+    /**
+     * Removes the oldest value still pending from the arrival order and its id index.
+     */
+    private PendingValue pollOldest() {
+        PendingValue head;
+        while ((head = arrivalOrder.poll()) != null) {
+            if (!head.done) {
+                head.done = true;
+                size--;
+                List<PendingValue> values = head.index.get(head.missingId);
+                if (values != null && values.remove(head) && values.isEmpty()) {
+                    head.index.remove(head.missingId);
+                }
+                return head;
+            }
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getReleased() {
+        return released.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getOverflowed() {
+        return overflowed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", size())
+                .add("capacity", capacity)
+                .add("ttlMillis", ttlMillis)
+                .add("released", getReleased())
+                .add("expired", getExpired())
+                .add("overflowed", getOverflowed())
+                .toString();
+    }
+
+    private static class PendingValue {
+
+        private final Value value;
+        private final long deadline;
+        private final IntObjectMap<List<PendingValue>> index;
+        private final int missingId;
+        private boolean done;
+
+        PendingValue(Value value, long deadline, IntObjectMap<List<PendingValue>> index, int missingId) {
+            this.value = value;
+            this.deadline = deadline;
+            this.index = index;
+            this.missingId = missingId;
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.Histogram;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+
+/**
+ * A Kafka producer together with the window of its records awaiting
+ * acknowledgement. The window is shared by all offerings sending with the
+ * producer. Sending never waits for the window: a producer with
+ * <code>maxInFlight</code> or more records in flight reports itself as
+ * saturated, and the consumer pauses its value partitions until the window
+ * has drained to half of it.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class PooledProducer implements AutoCloseable {
+
+    private final Producer<Integer, byte[]> producer;
+    private final int maxInFlight;
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final Histogram sendLatency;
+    private final Counter sendErrors;
+
+    public PooledProducer(Producer<Integer, byte[]> producer, int maxInFlight) {
+        this(producer, maxInFlight, new PipelineMetrics(), "producer");
+    }
+
+    /**
+     * @param producer the Kafka producer
+     * @param maxInFlight the number of records awaiting acknowledgement at which the producer is saturated
+     * @param metrics the registry of the send latency, errors and the records in flight
+     * @param name the prefix of the metric names, e.g. <code>producer.0</code>
+     */
+    public PooledProducer(Producer<Integer, byte[]> producer, int maxInFlight, PipelineMetrics metrics,
+            String name) {
+        this.producer = producer;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.sendLatency = metrics.histogram(name + ".sendLatencyNanos");
+        this.sendErrors = metrics.counter(name + ".errors");
+        metrics.gauge(name + ".inFlight", inFlight::get);
+    }
+
+    /**
+     * Hands a record to the Kafka producer without waiting for the window.
+     *
+     * @param record the record
+     * @param callback invoked once the record has been acknowledged or has failed
+     * @return the future of the record, or null if it could not be handed to the producer
+     */
+    public Future<RecordMetadata> send(ProducerRecord<Integer, byte[]> record, Callback callback) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        sent.increment();
+        try {
+            return producer.send(record, (meta, e) -> onCompletion(meta, e, callback, start));
+        } catch (RuntimeException e) {
+            onCompletion(null, e, callback, start);
+            return null;
+        }
+    }
+
+    private void onCompletion(RecordMetadata meta, Exception e, Callback callback, long start) {
+        inFlight.decrementAndGet();
+        sendLatency.recordSince(start);
+        if (e == null) {
+            acknowledged.increment();
+        }
+        else {
+            failed.increment();
+            sendErrors.increment();
+        }
+        if (callback != null) {
+            callback.onCompletion(meta, e);
+        }
+    }
+
+    /**
+     * @return true if the window is exhausted
+     */
+    public boolean isSaturated() {
+        return inFlight.get() >= maxInFlight;
+    }
+
+    /**
+     * @return true if at most half of the window is in use
+     */
+    public boolean isDrained() {
+        return inFlight.get() <= maxInFlight / 2;
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of records awaiting acknowledgement
+     */
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Flushes outstanding records and closes the Kafka producer.
+     */
+    @Override
+    public void close() {
+        producer.close();
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+
+/**
+ * A small, fixed set of Kafka producers shared by all
+ * {@link SosOfferingProducer}s. Kafka producers are thread-safe, so the
+ * offering producers only keep a reference to the producer assigned to
+ * their offering instead of opening their own connections and buffers. The
+ * window of records in flight is kept per pooled producer.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ProducerPool implements AutoCloseable {
+
+    private final List<PooledProducer> producers;
+
+    public ProducerPool(String bootstrapServers, int size) {
+        this(bootstrapServers, size, new Properties(), 10000, new PipelineMetrics(), "producer");
+    }
+
+    /**
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param size the number of producers
+     * @param overrides producer configuration overriding the defaults, e.g. batching and compression
+     * @param maxInFlight the window of records awaiting acknowledgement per producer
+     * @param metrics the registry of the producer metrics
+     * @param name the prefix of the metric names, suffixed with the index of the producer
+     */
+    public ProducerPool(String bootstrapServers, int size, Properties overrides, int maxInFlight,
+            PipelineMetrics metrics, String name) {
+        this.producers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.producers.add(new PooledProducer(SosOfferingProducer.createProducer(bootstrapServers, overrides),
+                    maxInFlight, metrics, name + "." + i));
+        }
+    }
+
+    /**
+     * @param offeringId the id of the offering
+     * @return the producer assigned to the offering
+     */
+    public PooledProducer forOffering(int offeringId) {
+        return producers.get(Math.floorMod(offeringId, producers.size()));
+    }
+
+    public int size() {
+        return producers.size();
+    }
+
+    /**
+     * @return true if the window of any producer is exhausted
+     */
+    public boolean isSaturated() {
+        return producers.stream().anyMatch(PooledProducer::isSaturated);
+    }
+
+    /**
+     * @return true if the windows of all producers have drained to half
+     */
+    public boolean isDrained() {
+        return producers.stream().allMatch(PooledProducer::isDrained);
+    }
+
+    /**
+     * @return the number of records awaiting acknowledgement over all producers
+     */
+    public long getInFlight() {
+        return producers.stream().mapToLong(PooledProducer::getInFlight).sum();
+    }
+
+    @Override
+    public void close() {
+        producers.forEach(PooledProducer::close);
+    }
+
+}
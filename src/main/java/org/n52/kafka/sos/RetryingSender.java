@@ -0,0 +1,272 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends measurements of tracked records (at-least-once delivery). The
+ * record is completed once its measurement has been acknowledged. A failed
+ * send is retried with an exponential backoff, at most
+ * <code>producer.retryAttempts</code> times; afterwards the give-up handler
+ * is invoked (the consumer stops, so that the record is consumed again
+ * after a restart). Measurements of untracked records are sent once.
+ * <p>
+ * While a measurement of a series is being retried, later measurements of
+ * the series are held back and sent one after the other once the retry has
+ * succeeded, so that the series stays ordered. Measurements that were
+ * already in flight when the failure was reported are only ordered if
+ * they fail as well; <code>producer.idempotence</code> lets the producer
+ * retry in order itself.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+class RetryingSender implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingSender.class.getName());
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Runnable giveUpHandler;
+    private final ScheduledExecutorService scheduler;
+    private final Counter retries;
+    private final Counter givenUp;
+    private final Counter held;
+
+    /*
+     * series with a measurement being retried, guarded by this
+     */
+    private final Map<Integer, SeriesHold> holds = new HashMap<>();
+
+    /**
+     * @param settings the settings
+     * @param giveUpHandler invoked when the measurement of a tracked record could not be sent
+     * @param metrics the registry of the retry counters
+     */
+    RetryingSender(Settings settings, Runnable giveUpHandler, PipelineMetrics metrics) {
+        this.maxAttempts = Math.max(1, settings.getInt("producer.retryAttempts", 5));
+        this.initialBackoff = settings.getLong("producer.retryBackoffMs", 100);
+        this.maxBackoff = settings.getLong("producer.maxRetryBackoffMs", 5000);
+        this.giveUpHandler = giveUpHandler;
+        this.retries = metrics.counter("producer.retries");
+        this.givenUp = metrics.counter("producer.givenUp");
+        this.held = metrics.counter("producer.heldForRetry");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sos-send-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param target the producer of the offering
+     * @param mo the measurement
+     * @param completion the record to complete once the measurement has been acknowledged, null if untracked
+     * @param callback an optional callback invoked with the final outcome
+     * @throws IOException if the measurement could not be handed to the producer
+     */
+    void send(SosOfferingProducer target, MeasurementObservation mo, OffsetTracker.Completion completion,
+            Callback callback) throws IOException {
+        Attempt attempt = new Attempt(target, mo, completion, callback);
+        synchronized (this) {
+            SeriesHold hold = holds.get(attempt.series());
+            if (hold != null) {
+                held.increment();
+                hold.queue.add(attempt);
+                return;
+            }
+        }
+        target.newMeasurement(mo, (meta, e) -> onCompletion(attempt, meta, e));
+    }
+
+    private void resend(Attempt attempt) {
+        try {
+            attempt.target.newMeasurement(attempt.measurement, (meta, e) -> onCompletion(attempt, meta, e));
+        } catch (IOException | RuntimeException e) {
+            onCompletion(attempt, null, e);
+        }
+    }
+
+    private void onCompletion(Attempt attempt, RecordMetadata meta, Exception e) {
+        if (e == null) {
+            if (attempt.completion != null) {
+                attempt.completion.complete();
+            }
+            if (attempt.callback != null) {
+                attempt.callback.onCompletion(meta, null);
+            }
+            sendNextHeld(attempt);
+            return;
+        }
+
+        if (attempt.completion != null && attempt.attempts < maxAttempts) {
+            synchronized (this) {
+                SeriesHold hold = holds.get(attempt.series());
+                if (hold == null) {
+                    holds.put(attempt.series(), new SeriesHold(attempt));
+                }
+                else if (hold.head != attempt) {
+                    /*
+                     * a later measurement that was in flight already, retried after the head
+                     */
+                    retries.increment();
+                    attempt.attempts++;
+                    hold.queue.add(attempt);
+                    return;
+                }
+            }
+            scheduleRetry(attempt, e);
+            return;
+        }
+
+        if (attempt.callback != null) {
+            attempt.callback.onCompletion(null, e);
+        }
+        if (attempt.completion == null) {
+            sendNextHeld(attempt);
+            return;
+        }
+        givenUp.increment();
+        LOG.error("Could not send the measurement of offset {} after {} attempts: {}",
+                attempt.completion.getOffset(), attempt.attempts, e.getMessage());
+        failHeld(attempt, e);
+        giveUpHandler.run();
+    }
+
+    private void scheduleRetry(Attempt attempt, Exception e) {
+        long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt.attempts - 1, 20));
+        LOG.debug("Send of offset {} failed, retrying in {} ms: {}", attempt.completion.getOffset(), backoff,
+                e.getMessage());
+        retries.increment();
+        attempt.attempts++;
+        try {
+            scheduler.schedule(() -> resend(attempt), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Dropping the retry of offset {}, the sender is closed", attempt.completion.getOffset());
+        }
+    }
+
+    /**
+     * Sends the next measurement held back behind the given one, if it has
+     * been the head of its series.
+     */
+    private void sendNextHeld(Attempt finished) {
+        Attempt next;
+        synchronized (this) {
+            SeriesHold hold = holds.get(finished.series());
+            if (hold == null || hold.head != finished) {
+                return;
+            }
+            next = hold.queue.poll();
+            if (next == null) {
+                holds.remove(finished.series());
+                return;
+            }
+            hold.head = next;
+        }
+        resend(next);
+    }
+
+    /**
+     * Fails the measurements held back behind a measurement that has been
+     * given up. Their records are not completed.
+     */
+    private void failHeld(Attempt givenUpAttempt, Exception e) {
+        List<Attempt> failed;
+        synchronized (this) {
+            SeriesHold hold = holds.get(givenUpAttempt.series());
+            if (hold == null || hold.head != givenUpAttempt) {
+                return;
+            }
+            holds.remove(givenUpAttempt.series());
+            failed = new ArrayList<>(hold.queue);
+        }
+        failed.stream()
+                .filter(attempt -> attempt.callback != null)
+                .forEach(attempt -> attempt.callback.onCompletion(null, e));
+    }
+
+    /**
+     * @return the number of series with a measurement being retried
+     */
+    synchronized int getHeldSeries() {
+        return holds.size();
+    }
+
+    /**
+     * Drops the scheduled retries, their records are not completed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class Attempt {
+
+        private final SosOfferingProducer target;
+        private final MeasurementObservation measurement;
+        private final OffsetTracker.Completion completion;
+        private final Callback callback;
+        private int attempts = 1;
+
+        Attempt(SosOfferingProducer target, MeasurementObservation measurement,
+                OffsetTracker.Completion completion, Callback callback) {
+            this.target = target;
+            this.measurement = measurement;
+            this.completion = completion;
+            this.callback = callback;
+        }
+
+        int series() {
+            return measurement.getSeries().getId();
+        }
+
+    }
+
+    /**
+     * The measurement of a series being retried and the measurements held
+     * back behind it, in the order they have been sent.
+     */
+    private static final class SeriesHold {
+
+        private Attempt head;
+        private final ArrayDeque<Attempt> queue = new ArrayDeque<>();
+
+        SeriesHold(Attempt head) {
+            this.head = head;
+        }
+
+    }
+
+}
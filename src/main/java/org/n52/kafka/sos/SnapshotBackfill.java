@@ -0,0 +1,292 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the values of an initial Debezium snapshot. Snapshot values
+ * are enriched on their own threads and sent with separate producers that
+ * are tuned for throughput (large batches, compression), so that the
+ * backfill does not queue up in front of live changes. Values are not
+ * logged one by one; progress is reported periodically instead. Values
+ * whose offering has no live producer yet are parked until it has been
+ * initialized (see {@link #offeringAvailable(int)}).
+ * <p>
+ * Values are submitted from the poll loop, which pauses the value
+ * partitions based on {@link #getMaxQueueDepth()} and
+ * {@link #isProducerSaturated()}, so that the bounded stripes do not block
+ * it.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class SnapshotBackfill {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotBackfill.class.getName());
+
+    private final MetadataCache cache;
+    private final Map<Integer, SosOfferingProducer> liveProducers;
+    private final Map<Integer, SosOfferingProducer> producers = new ConcurrentHashMap<>();
+    private final ProducerPool producerPool;
+    private final StripedExecutor executor;
+    private final PendingValueBuffer pendingValues;
+    private final Map<Value, OffsetTracker.Completion> completions
+            = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final RetryingSender sender;
+    private final long progressInterval;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long lastProgress = System.currentTimeMillis();
+    private long lastSent;
+
+    /**
+     * @param cache the metadata cache
+     * @param liveProducers the initialized producers of the live path, by offering id
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param settings the settings
+     * @param sender sends the measurements and completes their records
+     * @param metrics the registry of the backfill producer metrics
+     */
+    SnapshotBackfill(MetadataCache cache, Map<Integer, SosOfferingProducer> liveProducers,
+            String bootstrapServers, Settings settings, RetryingSender sender, PipelineMetrics metrics) {
+        this.cache = cache;
+        this.liveProducers = liveProducers;
+        this.sender = sender;
+        this.executor = new StripedExecutor("sos-backfill", settings.getInt("backfill.threads", 2),
+                settings.getInt("backfill.queueCapacity", 10000));
+        this.progressInterval = TimeUnit.SECONDS.toMillis(settings.getLong("backfill.progressSeconds", 10));
+        this.pendingValues = new PendingValueBuffer(
+                settings.getInt("pendingValues.capacity", 100000),
+                settings.getLong("pendingValues.ttlSeconds", 60),
+                TimeUnit.SECONDS);
+        this.pendingValues.setOverflowListener(this::dropped);
+
+        Properties overrides = SosOfferingProducer.producerOverrides(settings);
+        overrides.put("batch.size", settings.getInt("backfill.batchSize", 524288));
+        overrides.put("linger.ms", settings.getInt("backfill.lingerMs", 100));
+        overrides.put("compression.type", settings.getString("backfill.compression", "lz4"));
+        overrides.put("buffer.memory", settings.getLong("backfill.bufferMemory", 134217728L));
+        this.producerPool = new ProducerPool(bootstrapServers, settings.getInt("backfill.poolSize", 1), overrides,
+                settings.getInt("producer.maxInFlight", 10000), metrics, "backfill.producer");
+    }
+
+    /**
+     * @param val a value of the snapshot
+     * @param completion the record of the value, completed once its measurement has been acknowledged or the
+     * value has been dropped. Null if untracked
+     */
+    public void submit(Value val, OffsetTracker.Completion completion) {
+        submitted.increment();
+        if (completion != null) {
+            completions.put(val, completion);
+        }
+        dispatch(val);
+    }
+
+    private void dropped(Value val) {
+        failed.increment();
+        OffsetTracker.Completion completion = completions.remove(val);
+        if (completion != null) {
+            completion.complete();
+        }
+    }
+
+    public void observationAvailable(int id) {
+        pendingValues.observationAvailable(id).forEach(this::dispatch);
+    }
+
+    public void seriesAvailable(int id) {
+        pendingValues.seriesAvailable(id).forEach(this::dispatch);
+    }
+
+    /**
+     * @param id the id of the offering whose live producer has been initialized
+     */
+    public void offeringAvailable(int id) {
+        pendingValues.offeringAvailable(id).forEach(this::dispatch);
+    }
+
+    /**
+     * Routes a value by series, so that the measurements of a series are
+     * sent in order. A value whose observation is not known yet is parked on
+     * the calling (poll) thread instead.
+     */
+    private void dispatch(Value val) {
+        Observation obs = cache.getObservationStore().get(val.getObservationId());
+        if (obs == null) {
+            ObservationNotAvailableException missing = new ObservationNotAvailableException(
+                    "Observation not available for id: " + val.getObservationId(),
+                    ObservationNotAvailableException.MissingEntity.OBSERVATION, val.getObservationId());
+            if (pendingValues.add(val, missing, id -> cache.isAvailable(missing.getMissingEntity(), id))) {
+                return;
+            }
+            obs = cache.getObservationStore().get(val.getObservationId());
+            if (obs == null) {
+                dropped(val);
+                return;
+            }
+        }
+        executor.execute(obs.getSeriesId(), () -> enrichAndSend(val));
+    }
+
+    private void enrichAndSend(Value val) {
+        int attempts = 0;
+        while (attempts++ < 3) {
+            try {
+                MeasurementObservation mo = MeasurementObservation.fromValue(val, cache);
+                int offeringId = mo.getSeries().getOfferingId();
+                SosOfferingProducer target = producerFor(offeringId);
+                if (target == null) {
+                    throw new ObservationNotAvailableException("No producer for offering: " + offeringId,
+                            ObservationNotAvailableException.MissingEntity.OFFERING, offeringId);
+                }
+                sender.send(target, mo, completions.get(val), (meta, e) -> {
+                    if (e == null) {
+                        sent.increment();
+                    }
+                    else {
+                        failed.increment();
+                    }
+                });
+                completions.remove(val);
+                cache.observationEmitted(val.getObservationId());
+                return;
+            } catch (ObservationNotAvailableException ex) {
+                if (pendingValues.add(val, ex, id -> isAvailable(ex.getMissingEntity(), id))) {
+                    return;
+                }
+            } catch (IOException ex) {
+                LOG.debug(ex.getMessage(), ex);
+                break;
+            }
+        }
+        dropped(val);
+    }
+
+    private boolean isAvailable(ObservationNotAvailableException.MissingEntity entity, int id) {
+        if (entity == ObservationNotAvailableException.MissingEntity.OFFERING) {
+            return liveProducers.containsKey(id);
+        }
+        return cache.isAvailable(entity, id);
+    }
+
+    private SosOfferingProducer producerFor(int offeringId) {
+        SosOfferingProducer live = liveProducers.get(offeringId);
+        if (live == null) {
+            return null;
+        }
+        SosOfferingProducer copy = producers.get(offeringId);
+        if (copy == null || !copy.isCopyOf(live)) {
+            /*
+             * the copy of a replaced live producer would wait behind its stale topic gate.
+             * The backfill always sends asynchronously, its records are
+             * completed from the callback
+             */
+            copy = live.withProducer(producerPool.forOffering(offeringId), true);
+            producers.put(offeringId, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Drops expired pending values and logs the progress if due. To be
+     * called periodically from the poll loop.
+     */
+    public void maintain() {
+        pendingValues.expire().forEach(this::dropped);
+
+        long now = System.currentTimeMillis();
+        if (now - lastProgress < progressInterval) {
+            return;
+        }
+        long sentNow = sent.sum();
+        if (sentNow != lastSent || pendingValues.size() > 0) {
+            int queued = 0;
+            for (int depth : executor.getQueueDepths()) {
+                queued += depth;
+            }
+            LOG.info("Backfill: {} values received, {} sent ({}/s), {} queued, {} pending, {} failed",
+                    submitted.sum(), sentNow, (sentNow - lastSent) * 1000 / Math.max(1, now - lastProgress),
+                    queued, pendingValues.size(), failed.sum());
+        }
+        lastSent = sentNow;
+        lastProgress = now;
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of values queued by the fullest stripe
+     */
+    public int getMaxQueueDepth() {
+        return executor.getMaxQueueDepth();
+    }
+
+    /**
+     * @return true if a backfill producer has exhausted its in-flight window
+     */
+    public boolean isProducerSaturated() {
+        return producerPool.isSaturated();
+    }
+
+    /**
+     * @return true if the windows of all backfill producers have drained to half
+     */
+    public boolean isProducerDrained() {
+        return producerPool.isDrained();
+    }
+
+    /**
+     * Waits for the queued values and flushes the backfill producers.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            LOG.warn(ex.getMessage());
+        }
+        producerPool.close();
+    }
+
+}
@@ -16,25 +16,32 @@
  */
 package org.n52.kafka.sos;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Throwables;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import org.apache.kafka.clients.admin.AdminClient;
-import org.apache.kafka.clients.admin.CreateTopicsResult;
-import org.apache.kafka.clients.admin.NewTopic;
+import java.util.function.Supplier;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
-import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.IntegerSerializer;
-import org.apache.kafka.common.serialization.StringSerializer;
+import org.n52.kafka.sos.codec.JsonMeasurementCodec;
+import org.n52.kafka.sos.codec.MeasurementCodec;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.Histogram;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
 import org.n52.kafka.sos.model.MeasurementObservation;
 import org.n52.kafka.sos.model.Offering;
 import org.slf4j.Logger;
@@ -47,66 +54,235 @@ import org.slf4j.LoggerFactory;
 public class SosOfferingProducer {
     
     private static final Logger LOG = LoggerFactory.getLogger(SosOfferingProducer.class.getName());
-    private static final ObjectMapper MAPPER = new ObjectMapper()
-            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final String CONTENT_TYPE_HEADER = "content-type";
     
     private final Offering offering;
     private final String bootstrapServers;
-    private Producer<Integer, String> producer;
-    private int valueCounter;
-    private String topicName;
+    private final Settings settings;
+    private boolean async;
+    private final boolean sharedProducer;
+    private final MeasurementCodec codec;
+    private final List<Header> headers;
+    private PooledProducer producer;
+    private final int partitions;
+    private final String replicationFactor;
+    private final String topicName;
+    private TopicGate topicGate;
+
+    private final PipelineMetrics metrics;
+    private final Histogram serializationTime;
+    private final Histogram sendLatency;
+    private final Counter sendErrors;
     
     public SosOfferingProducer(Offering off, String bootstrapServers) {
+        this(off, bootstrapServers, new Settings(null));
+    }
+
+    /**
+     * @param off the offering
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param settings the settings. If <code>producer.async</code> is set, records are sent without waiting
+     * for the acknowledgement of the previous one
+     */
+    public SosOfferingProducer(Offering off, String bootstrapServers, Settings settings) {
+        this(off, bootstrapServers, settings, null, new JsonMeasurementCodec());
+    }
+
+    /**
+     * @param off the offering
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param settings the settings
+     * @param producer a shared producer to send the measurements with. If null, an own producer is created on
+     * {@link #initialize()}
+     * @param codec the codec to encode the measurements with
+     */
+    public SosOfferingProducer(Offering off, String bootstrapServers, Settings settings,
+            PooledProducer producer, MeasurementCodec codec) {
+        this(off, bootstrapServers, settings, producer, codec, new PipelineMetrics());
+    }
+
+    /**
+     * @param off the offering
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param settings the settings
+     * @param producer a shared producer to send the measurements with. If null, an own producer is created on
+     * {@link #initialize()}
+     * @param codec the codec to encode the measurements with
+     * @param metrics the registry of the serialization time and, for an own producer, its send metrics
+     */
+    public SosOfferingProducer(Offering off, String bootstrapServers, Settings settings,
+            PooledProducer producer, MeasurementCodec codec, PipelineMetrics metrics) {
+        this.metrics = metrics;
+        this.serializationTime = metrics.histogram("serialization.timeNanos");
+        /*
+         * per offering, also if the in-flight window is shared in a pool
+         */
+        this.sendLatency = metrics.histogram("offering." + off.getId() + ".sendLatencyNanos");
+        this.sendErrors = metrics.counter("offering." + off.getId() + ".errors");
         this.offering = off;
+        this.producer = producer;
+        this.sharedProducer = producer != null;
+        this.codec = codec;
+        this.headers = Collections.singletonList(new RecordHeader(CONTENT_TYPE_HEADER,
+                codec.getContentType().getBytes(StandardCharsets.UTF_8)));
         this.bootstrapServers = bootstrapServers;
+        this.settings = settings;
+        this.async = settings.getBoolean("producer.async", false);
+        this.partitions = settings.getInt("offeringTopic.partitions." + off.getId(),
+                settings.getInt("offeringTopic.partitions", 1));
+        this.replicationFactor = settings.getString("offeringTopic.replicationFactor." + off.getId(),
+                settings.getString("offeringTopic.replicationFactor", "1"));
+        this.topicName = "sos.offerings." + off.getId();
+        this.topicGate = new TopicGate(settings.getInt("producer.awaitTopicCapacity", 10000),
+                settings.getLong("producer.topicRetryBackoffMs", 1000),
+                settings.getLong("producer.maxTopicRetryBackoffMs", 60000));
     }
     
-    public void initialize() throws IOException {
+    static Producer<Integer, byte[]> createProducer(String bootstrapServers) {
+        return createProducer(bootstrapServers, new Properties());
+    }
+
+    /**
+     * @param settings the settings
+     * @return the producer configuration derived from the settings. With
+     * <code>producer.idempotence</code> the producer retries failed batches
+     * itself without reordering them (Kafka 0.11 requires a single request in
+     * flight per connection for that)
+     */
+    static Properties producerOverrides(Settings settings) {
+        Properties overrides = new Properties();
+        if (settings.getBoolean("producer.idempotence", false)) {
+            overrides.put("enable.idempotence", true);
+            overrides.put("max.in.flight.requests.per.connection", 1);
+            overrides.put("retries", Integer.MAX_VALUE);
+        }
+        return overrides;
+    }
+
+    /**
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param overrides producer configuration overriding the defaults
+     * @return a new producer
+     */
+    static Producer<Integer, byte[]> createProducer(String bootstrapServers, Properties overrides) {
         Properties props = new Properties();
-        props.put("bootstrap.servers", this.bootstrapServers);
+        props.put("bootstrap.servers", bootstrapServers);
         props.put("acks", "all");
         props.put("retries", 0);
         props.put("batch.size", 16384);
         props.put("linger.ms", 1);
         props.put("buffer.memory", 33554432);
         props.put("key.serializer", IntegerSerializer.class.getName());
-        props.put("value.serializer", StringSerializer.class.getName());
-        
-        this.producer = new KafkaProducer<>(props);
-        this.topicName = "sos.offerings."+this.offering.getId();
-        this.valueCounter = 0;
-        
-        Properties adminConfig = new Properties();
-        adminConfig.put("bootstrap.servers", this.bootstrapServers);
-        
-        //TODO make the partition and replication factor configurable (e.g. dependent on the cluster size)
-        CreateTopicsResult result = AdminClient.create(adminConfig).createTopics(Collections.singletonList(
-                new NewTopic(this.topicName, 1, (short) 1)));
-        
-        try {
-            result.values().entrySet().forEach((entry) -> {
-                try {
-                    entry.getValue().get();
-                    LOG.info("topic {} created", entry.getKey());
-                } catch (InterruptedException | ExecutionException e) {
-                    if (Throwables.getRootCause(e) instanceof TopicExistsException) {
-                        LOG.warn("topic {} existed", entry.getKey());
-                    }
-                    else {
-                        throw new RuntimeException(new IOException("Could not create topic", e));
-                    }
-                }
-            });
-        } catch (RuntimeException e) {
-            if (e.getCause() instanceof IOException) {
-                throw (IOException) e.getCause();
-            }
-            throw e;
+        props.put("value.serializer", ByteArraySerializer.class.getName());
+        props.putAll(overrides);
+        return new KafkaProducer<>(props);
+    }
+
+    /**
+     * Creates the topic of the offering and waits until it exists.
+     *
+     * @throws IOException if the topic could not be created
+     */
+    public void initialize() throws IOException {
+        try (TopicProvisioner provisioner = new TopicProvisioner(this.bootstrapServers, this.settings)) {
+            CompletableFuture<Void> topicCreated = provisionTopic(provisioner);
+            initialize(topicCreated);
+            topicCreated.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not create topic " + this.topicName, e);
         }
-        
+    }
+
+    /**
+     * Requests the topic of the offering without waiting for it. Measurements
+     * are queued until the topic has been created (at most
+     * <code>producer.awaitTopicCapacity</code>, further measurements wait for
+     * space) and are dropped if it cannot be created. The topic is requested
+     * again by the first measurement after <code>producer.topicRetryBackoffMs</code>
+     * (doubled after every failure up to <code>producer.maxTopicRetryBackoffMs</code>),
+     * the measurements arriving before are dropped. The queued measurements
+     * are sent on the executor of the provisioner for completed topics, not
+     * on its provisioning thread.
+     *
+     * @param provisioner the provisioner to create the topic with
+     */
+    public void initialize(TopicProvisioner provisioner) {
+        initialize(() -> provisionTopic(provisioner), provisioner.getCompletionExecutor());
+    }
+
+    private CompletableFuture<Void> provisionTopic(TopicProvisioner provisioner) {
+        return provisioner.provision(this.topicName, this.partitions, this.replicationFactor);
+    }
+
+    /**
+     * @param topicCreated completed once the topic exists
+     */
+    void initialize(CompletableFuture<?> topicCreated) {
+        initialize(topicCreated, Runnable::run);
+    }
+
+    /**
+     * @param topicCreated completed once the topic exists
+     * @param executor the executor to send the queued measurements on once the topic exists
+     */
+    void initialize(CompletableFuture<?> topicCreated, Executor executor) {
+        initializeProducer();
+        this.topicGate.await(topicCreated, executor);
         LOG.info("initialized producer for offering '{}'", getOfferingId());
     }
-    
+
+    /**
+     * @param topicRequest requests the topic, again after it could not be created
+     * @param executor the executor to send the queued measurements on once the topic exists
+     */
+    void initialize(Supplier<CompletableFuture<?>> topicRequest, Executor executor) {
+        initializeProducer();
+        this.topicGate.provision(topicRequest, executor);
+        LOG.info("initialized producer for offering '{}'", getOfferingId());
+    }
+
+    private void initializeProducer() {
+        if (this.producer == null) {
+            Producer<Integer, byte[]> own = createProducer(this.bootstrapServers, producerOverrides(this.settings));
+            this.producer = new PooledProducer(own,
+                    this.settings.getInt("producer.maxInFlight", 10000), this.metrics,
+                    "producer.offering." + getOfferingId());
+        }
+    }
+
+    /**
+     * @param other the producer to send with
+     * @return a shallow copy of this initialized offering producer, sending
+     * to the same topic with another (shared) producer
+     */
+    SosOfferingProducer withProducer(PooledProducer other) {
+        return withProducer(other, this.async);
+    }
+
+    /**
+     * @param other the producer to send with
+     * @param async whether the copy sends without waiting for the acknowledgement of the previous record,
+     * regardless of <code>producer.async</code>
+     * @return a shallow copy of this initialized offering producer, sending
+     * to the same topic with another (shared) producer
+     */
+    SosOfferingProducer withProducer(PooledProducer other, boolean async) {
+        SosOfferingProducer copy = new SosOfferingProducer(this.offering, this.bootstrapServers, this.settings,
+                other, this.codec, this.metrics);
+        copy.topicGate = this.topicGate;
+        copy.async = async;
+        return copy;
+    }
+
+    /**
+     * @param other an offering producer
+     * @return true if this producer has been created by {@link #withProducer(PooledProducer)} of the other one
+     * (or vice versa), i.e. both send to the same topic behind the same gate
+     */
+    boolean isCopyOf(SosOfferingProducer other) {
+        return this.topicGate == other.topicGate;
+    }
+
     public String getOfferingId() {
         return Integer.toString(this.offering.getId());
     }
@@ -114,21 +290,270 @@ public class SosOfferingProducer {
     public String getTopicName() {
         return topicName;
     }
+
+    /**
+     * @return the producer the measurements are sent with, null before {@link #initialize()}
+     */
+    public PooledProducer getProducer() {
+        return producer;
+    }
     
-    void newMeasurement(MeasurementObservation mo) throws JsonProcessingException {
+    void newMeasurement(MeasurementObservation mo) throws IOException {
+        newMeasurement(mo, null);
+    }
+
+    /**
+     * Sends a measurement to the topic of the offering. In asynchronous
+     * mode this method does not wait for the in-flight window of the
+     * producer; the caller checks {@link PooledProducer#isSaturated()}.
+     *
+     * @param mo the measurement
+     * @param callback an optional callback invoked once the record has been acknowledged or has failed
+     * @throws IOException if the measurement could not be serialized
+     */
+    void newMeasurement(MeasurementObservation mo, Callback callback) throws IOException {
         LOG.debug("New measurement for producer {}", this);
-        Future<RecordMetadata> response = this.producer.send(new ProducerRecord<>(this.topicName,
-                this.valueCounter++,
-                MAPPER.writeValueAsString(mo)));
-        
+        if (!this.topicGate.isOpen() && this.topicGate.hold(new PendingMeasurement(this, mo, callback))) {
+            return;
+        }
+        if (this.topicGate.getError() != null) {
+            if (this.topicGate.retry()) {
+                newMeasurement(mo, callback);
+                return;
+            }
+            throw this.topicGate.getError();
+        }
+        send(mo, callback, !this.async);
+    }
+
+    private void send(MeasurementObservation mo, Callback callback, boolean awaitAcknowledgement)
+            throws IOException {
+        /*
+         * keyed by series so that the measurements of a series stay ordered
+         * within one partition of the offering topic
+         */
+        long start = System.nanoTime();
+        byte[] value = this.codec.encode(mo);
+        this.serializationTime.recordSince(start);
+        ProducerRecord<Integer, byte[]> record = new ProducerRecord<>(this.topicName, null,
+                mo.getSeries().getId(),
+                value,
+                this.headers);
+
+        long sendStart = System.nanoTime();
+        Future<RecordMetadata> response = this.producer.send(record, (meta, e) -> {
+            this.sendLatency.recordSince(sendStart);
+            onCompletion(meta, e, callback);
+        });
+        if (!awaitAcknowledgement || response == null) {
+            return;
+        }
+
+        /*
+         * the callback has already run once the future is done
+         */
         try {
-            RecordMetadata meta = response.get();
-            LOG.debug("Topic response: {}", meta.toString());
+            response.get();
         }
-        catch (InterruptedException | ExecutionException e) {
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            LOG.debug("Send failed", e);
+        }
+    }
+
+    private void onCompletion(RecordMetadata meta, Exception e, Callback callback) {
+        if (e == null) {
+            LOG.debug("Topic response: {}", meta);
+        }
+        else {
+            this.sendErrors.increment();
             LOG.warn("Could not send to topic: {}", e.getMessage());
             LOG.debug(e.getMessage(), e);
         }
+
+        if (callback != null) {
+            callback.onCompletion(meta, e);
+        }
     }
-    
+
+    /**
+     * @return the number of measurements waiting for the topic to be created
+     */
+    public int getAwaitingTopic() {
+        return topicGate.size();
+    }
+
+    /**
+     * Flushes outstanding records and closes the underlying producer, unless it is shared.
+     */
+    public void close() {
+        if (this.producer != null && !this.sharedProducer) {
+            this.producer.close();
+        }
+    }
+
+    /**
+     * Holds back the measurements of the offering until its topic has been
+     * created. Shared by the copies created with {@link #withProducer(PooledProducer)}.
+     * If the topic could not be created, the gate is closed again by the
+     * first measurement after the backoff and the topic is requested again.
+     */
+    private static class TopicGate {
+
+        private final int capacity;
+        private final long initialBackoff;
+        private final long maxBackoff;
+        private final ArrayDeque<PendingMeasurement> pending = new ArrayDeque<>();
+        private boolean releasing;
+        private volatile boolean open;
+        private volatile IOException error;
+        private Supplier<CompletableFuture<?>> request;
+        private Executor executor;
+        private int failures;
+        private long retryAt;
+
+        TopicGate(int capacity, long initialBackoff, long maxBackoff) {
+            this.capacity = Math.max(1, capacity);
+            this.initialBackoff = Math.max(0, initialBackoff);
+            this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        }
+
+        void provision(Supplier<CompletableFuture<?>> topicRequest, Executor completionExecutor) {
+            synchronized (this) {
+                this.request = topicRequest;
+                this.executor = completionExecutor;
+            }
+            await(topicRequest.get(), completionExecutor);
+        }
+
+        void await(CompletableFuture<?> topicCreated, Executor completionExecutor) {
+            topicCreated.whenCompleteAsync((result, e) -> open(e), completionExecutor);
+        }
+
+        /**
+         * Closes the failed gate again once the backoff has elapsed and
+         * requests the topic again.
+         *
+         * @return true if the topic has been requested again
+         */
+        boolean retry() {
+            Supplier<CompletableFuture<?>> topicRequest;
+            int attempts;
+            synchronized (this) {
+                if (error == null || !open || request == null || System.currentTimeMillis() < retryAt) {
+                    return false;
+                }
+                topicRequest = request;
+                attempts = failures;
+                open = false;
+                releasing = false;
+                error = null;
+            }
+            LOG.info("Requesting the topic again after {} failed attempts", attempts);
+            await(topicRequest.get(), executor);
+            return true;
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        IOException getError() {
+            return error;
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        /**
+         * @return true if the measurement has been queued, false if the gate is open
+         */
+        synchronized boolean hold(PendingMeasurement measurement) throws IOException {
+            try {
+                while (!open && pending.size() >= capacity) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the topic to be created", e);
+            }
+            if (open) {
+                return false;
+            }
+            pending.add(measurement);
+            return true;
+        }
+
+        /**
+         * Sends or fails the queued measurements, batch by batch outside
+         * the monitor and without waiting for their acknowledgement.
+         * Measurements arriving meanwhile are still queued, the gate is
+         * opened only once the queue is empty, so that the queued
+         * measurements are sent before any later measurement.
+         */
+        void open(Throwable e) {
+            synchronized (this) {
+                if (open || releasing) {
+                    return;
+                }
+                releasing = true;
+                this.error = e != null ? new IOException("Topic could not be created", e) : null;
+                if (e == null) {
+                    failures = 0;
+                }
+                else {
+                    retryAt = System.currentTimeMillis()
+                            + Math.min(maxBackoff, initialBackoff << Math.min(failures, 20));
+                    failures++;
+                }
+                if (!pending.isEmpty()) {
+                    LOG.info("Topic ready, sending {} queued measurements", pending.size());
+                }
+            }
+            while (true) {
+                List<PendingMeasurement> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        open = true;
+                        notifyAll();
+                        return;
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                    notifyAll();
+                }
+                batch.forEach(measurement -> measurement.release(error));
+            }
+        }
+
+    }
+
+    private static class PendingMeasurement {
+
+        private final SosOfferingProducer target;
+        private final MeasurementObservation measurement;
+        private final Callback callback;
+
+        PendingMeasurement(SosOfferingProducer target, MeasurementObservation measurement, Callback callback) {
+            this.target = target;
+            this.measurement = measurement;
+            this.callback = callback;
+        }
+
+        void release(IOException error) {
+            try {
+                if (error != null) {
+                    throw error;
+                }
+                target.send(measurement, callback, false);
+            } catch (IOException | RuntimeException e) {
+                target.onCompletion(null, e, callback);
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor with a fixed number of single-threaded stripes. Tasks are routed
+ * to a stripe by a key, so that tasks with the same key are executed
+ * strictly in submission order while tasks with different keys can run in
+ * parallel. The queue of every stripe can be bounded, in which case
+ * submitting to a full stripe blocks until a task has been taken.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class StripedExecutor {
+
+    private final ThreadPoolExecutor[] stripes;
+    private final LongAdder blockedSubmissions = new LongAdder();
+
+    public StripedExecutor(String name, int threads) {
+        this(name, threads, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param name the prefix of the thread names
+     * @param threads the number of stripes
+     * @param capacity the maximum number of queued tasks per stripe
+     */
+    public StripedExecutor(String name, int threads, int capacity) {
+        this.stripes = new ThreadPoolExecutor[Math.max(1, threads)];
+        for (int i = 0; i < stripes.length; i++) {
+            String threadName = name + "-" + i;
+            this.stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(capacity), r -> new Thread(r, threadName), this::enqueue);
+        }
+    }
+
+    /**
+     * Invoked if the queue of a stripe is full: waits for space instead of
+     * rejecting the task. Tasks must not be submitted from the stripe
+     * threads themselves, as they would wait for their own queue.
+     */
+    private void enqueue(Runnable task, ThreadPoolExecutor stripe) {
+        if (stripe.isShutdown()) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        blockedSubmissions.increment();
+        try {
+            stripe.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a free slot", e);
+        }
+    }
+
+    /**
+     * @param key the routing key, e.g. a series id
+     * @param task the task
+     */
+    public void execute(int key, Runnable task) {
+        stripes[stripeFor(key)].execute(task);
+    }
+
+    int stripeFor(int key) {
+        int h = key * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), stripes.length);
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return the number of queued tasks per stripe
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            depths[i] = stripes[i].getQueue().size();
+        }
+        return depths;
+    }
+
+    /**
+     * @return the number of queued tasks of the fullest stripe
+     */
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            max = Math.max(max, stripe.getQueue().size());
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of submissions that had to wait for a full stripe
+     */
+    public long getBlockedSubmissions() {
+        return blockedSubmissions.sum();
+    }
+
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService stripe : stripes) {
+            if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.base.Throwables;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.CreateTopicsResult;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.n52.kafka.sos.metrics.Counter;
+import org.n52.kafka.sos.metrics.Histogram;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates topics on a background thread using a single {@link AdminClient}.
+ * Requests are coalesced: the thread waits <code>topicProvisioner.lingerMs</code>
+ * after the first pending request and then creates up to
+ * <code>topicProvisioner.batchSize</code> topics with one
+ * <code>createTopics</code> call. Topics that exist already are reported as
+ * created.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class TopicProvisioner implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopicProvisioner.class.getName());
+    private static final String AUTO_REPLICATION_FACTOR = "auto";
+    private static final int MAX_AUTO_REPLICATION_FACTOR = 3;
+
+    private final AdminClient admin;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private final ExecutorService completionExecutor;
+    private volatile boolean closed;
+
+    private final Histogram batchSizes;
+    private final Counter created;
+    private final Counter failed;
+
+    public TopicProvisioner(String bootstrapServers, Settings settings) {
+        this(bootstrapServers, settings, new PipelineMetrics());
+    }
+
+    /**
+     * @param bootstrapServers the Kafka bootstrap servers
+     * @param settings the settings
+     * @param metrics the registry of the batch sizes and the created and failed topics
+     */
+    public TopicProvisioner(String bootstrapServers, Settings settings, PipelineMetrics metrics) {
+        Properties adminConfig = new Properties();
+        adminConfig.put("bootstrap.servers", bootstrapServers);
+        this.admin = AdminClient.create(adminConfig);
+        this.batchSize = Math.max(1, settings.getInt("topicProvisioner.batchSize", 500));
+        this.lingerMillis = settings.getLong("topicProvisioner.lingerMs", 50);
+        this.batchSizes = metrics.histogram("topics.batchSize");
+        this.created = metrics.counter("topics.created");
+        this.failed = metrics.counter("topics.failed");
+        metrics.gauge("topics.pending", requests::size);
+        this.completionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread completions = new Thread(r, "sos-topic-ready");
+            completions.setDaemon(true);
+            return completions;
+        });
+        this.thread = new Thread(this::run, "sos-topic-provisioner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the executor to run the continuations of provisioned topics on,
+     * e.g. sending the measurements queued for them, so that the provisioning
+     * thread is not blocked by them
+     */
+    public Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    /**
+     * @param topic the topic name
+     * @param partitions the number of partitions
+     * @param replicationFactor the replication factor or <code>auto</code> to
+     * derive it from the cluster size (at most {@link #MAX_AUTO_REPLICATION_FACTOR})
+     * @return completed once the topic exists, or exceptionally with an
+     * {@link IOException} if it could not be created
+     */
+    public CompletableFuture<Void> provision(String topic, int partitions, String replicationFactor) {
+        return provision(topic, partitions, replicationFactor, Collections.emptyMap());
+    }
+
+    /**
+     * @param topic the topic name
+     * @param partitions the number of partitions
+     * @param replicationFactor the replication factor or <code>auto</code>
+     * @param configs the topic configuration, e.g. the cleanup policy
+     * @return completed once the topic exists
+     */
+    public CompletableFuture<Void> provision(String topic, int partitions, String replicationFactor,
+            Map<String, String> configs) {
+        Request request = new Request(topic, partitions, replicationFactor, configs);
+        requests.add(request);
+        if (closed) {
+            failPending(Collections.emptyList());
+        }
+        return request.future;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                batch.add(requests.take());
+                if (lingerMillis > 0) {
+                    /*
+                     * the offerings of the initial load arrive within a few
+                     * polls, wait for them to be requested as well
+                     */
+                    Thread.sleep(lingerMillis);
+                }
+                requests.drainTo(batch, batchSize - 1);
+                createTopics(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            /*
+             * closed
+             */
+        } finally {
+            failPending(batch);
+        }
+    }
+
+    private void createTopics(List<Request> batch) throws InterruptedException {
+        batchSizes.record(batch.size());
+
+        /*
+         * a topic must not be contained twice in a request, e.g. if an
+         * offering row has been updated
+         */
+        Map<String, List<Request>> byTopic = new LinkedHashMap<>();
+        for (Request request : batch) {
+            byTopic.computeIfAbsent(request.topic, t -> new ArrayList<>(1)).add(request);
+        }
+
+        List<NewTopic> topics = new ArrayList<>(byTopic.size());
+        int clusterSize = 0;
+        for (List<Request> sameTopic : byTopic.values()) {
+            Request request = sameTopic.get(0);
+            try {
+                short replicationFactor;
+                if (AUTO_REPLICATION_FACTOR.equalsIgnoreCase(request.replicationFactor)) {
+                    if (clusterSize == 0) {
+                        clusterSize = admin.describeCluster().nodes().get().size();
+                    }
+                    replicationFactor = (short) Math.max(1, Math.min(clusterSize, MAX_AUTO_REPLICATION_FACTOR));
+                }
+                else {
+                    replicationFactor = Short.parseShort(request.replicationFactor);
+                }
+                topics.add(new NewTopic(request.topic, request.partitions, replicationFactor)
+                        .configs(request.configs));
+            } catch (ExecutionException | RuntimeException e) {
+                fail(sameTopic, new IOException("Could not determine the replication factor of topic "
+                        + request.topic, e));
+            }
+        }
+        if (topics.isEmpty()) {
+            return;
+        }
+
+        CreateTopicsResult result = admin.createTopics(topics);
+        for (Map.Entry<String, KafkaFuture<Void>> entry : result.values().entrySet()) {
+            List<Request> sameTopic = byTopic.get(entry.getKey());
+            try {
+                entry.getValue().get();
+                LOG.info("topic {} created", entry.getKey());
+                created.increment();
+                sameTopic.forEach(r -> r.future.complete(null));
+            } catch (ExecutionException e) {
+                if (Throwables.getRootCause(e) instanceof TopicExistsException) {
+                    LOG.info("topic {} existed", entry.getKey());
+                    sameTopic.forEach(r -> r.future.complete(null));
+                }
+                else {
+                    fail(sameTopic, new IOException("Could not create topic " + entry.getKey(), e));
+                }
+            }
+        }
+        LOG.debug("Requested {} topics in one batch", topics.size());
+    }
+
+    private void fail(List<Request> sameTopic, IOException e) {
+        LOG.warn(e.getMessage());
+        LOG.debug(e.getMessage(), e);
+        failed.increment();
+        sameTopic.forEach(r -> r.future.completeExceptionally(e));
+    }
+
+    private void failPending(List<Request> batch) {
+        List<Request> pending = new ArrayList<>(batch);
+        requests.drainTo(pending);
+        IOException closedException = new IOException("Topic provisioner has been closed");
+        pending.forEach(r -> r.future.completeExceptionally(closedException));
+    }
+
+    /**
+     * Stops the provisioning thread and closes the admin client. Topics
+     * still pending are completed exceptionally, the continuations already
+     * submitted to the {@link #getCompletionExecutor() completion executor}
+     * are still run.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        completionExecutor.shutdown();
+        admin.close();
+    }
+
+    private static class Request {
+
+        private final String topic;
+        private final int partitions;
+        private final String replicationFactor;
+        private final Map<String, String> configs;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Request(String topic, int partitions, String replicationFactor, Map<String, String> configs) {
+            this.topic = topic;
+            this.partitions = partitions;
+            this.replicationFactor = replicationFactor;
+            this.configs = configs;
+        }
+
+    }
+
+}
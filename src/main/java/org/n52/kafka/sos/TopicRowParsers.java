@@ -0,0 +1,177 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the {@link ChangeEventDecoder.RowParser} of a topic from the
+ * schema of its change events. The parser is cached along with the bytes of
+ * the envelope up to the end of the schema, so subsequent events only
+ * compare these bytes and the parser is resolved again once the schema
+ * changes, e.g. after the precision of a timestamp column was altered.
+ * Events without a schema are only checked for a leading
+ * <code>schema</code> field, as written by the Kafka Connect JSON converter.
+ * Topics with a fixed row layout (see {@link #fixed(ChangeEventDecoder.RowParser)})
+ * do not look at the events at all.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ * @param <T> the type of the rows
+ */
+class TopicRowParsers<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopicRowParsers.class.getName());
+
+    private final ChangeEventDecoder decoder;
+    private final ChangeEventDecoder.RowParserFactory<T> factory;
+    private final ChangeEventDecoder.RowParser<T> fixedParser;
+    private final ConcurrentMap<String, ResolvedParser<T>> parsers = new ConcurrentHashMap<>();
+
+    TopicRowParsers(ChangeEventDecoder decoder, ChangeEventDecoder.RowParserFactory<T> factory) {
+        this(decoder, factory, null);
+    }
+
+    private TopicRowParsers(ChangeEventDecoder decoder, ChangeEventDecoder.RowParserFactory<T> factory,
+            ChangeEventDecoder.RowParser<T> fixedParser) {
+        this.decoder = decoder;
+        this.factory = factory;
+        this.fixedParser = fixedParser;
+    }
+
+    /**
+     * @param <T> the type of the rows
+     * @param parser the parser of all events, regardless of their schema
+     * @return parsers returning the given parser without reading the schema of the events
+     */
+    static <T> TopicRowParsers<T> fixed(ChangeEventDecoder.RowParser<T> parser) {
+        return new TopicRowParsers<>(null, null, parser);
+    }
+
+    /**
+     * @param topic the topic
+     * @param data the serialized change event, used to resolve the parser if the topic is read for the first time
+     * or its schema has changed
+     * @return the parser of the topic
+     * @throws IOException if the schema cannot be read or declares column types the rows cannot be read with
+     */
+    ChangeEventDecoder.RowParser<T> forTopic(String topic, byte[] data) throws IOException {
+        if (fixedParser != null) {
+            return fixedParser;
+        }
+
+        ResolvedParser<T> resolved = parsers.get(topic);
+        if (resolved != null && resolved.matches(data)) {
+            return resolved.parser;
+        }
+
+        int schemaEnd = decoder.findSchemaEnd(data);
+        if (resolved != null && resolved.head == null && schemaEnd < 0) {
+            return resolved.parser;
+        }
+
+        Map<String, String> columnTypes = decoder.readColumnTypes(data);
+        if (columnTypes.isEmpty()) {
+            LOG.info("Change events of topic {} do not declare column types, using the defaults", topic);
+        }
+        else if (resolved != null) {
+            LOG.info("Schema of topic {} changed, column types: {}", topic, columnTypes);
+        }
+        else {
+            LOG.info("Column types of topic {}: {}", topic, columnTypes);
+        }
+
+        ChangeEventDecoder.RowParser<T> parser;
+        try {
+            parser = factory.create(columnTypes);
+        } catch (RuntimeException ex) {
+            LOG.error("Cannot read the change events of topic {}: {}", topic, ex.getMessage());
+            throw new IOException(ex.getMessage(), ex);
+        }
+        parsers.put(topic, new ResolvedParser<>(
+                schemaEnd < 0 ? null : Arrays.copyOfRange(data, 0, schemaEnd), parser));
+        return parser;
+    }
+
+    private static final class ResolvedParser<T> {
+
+        private static final byte[] SCHEMA_FIELD = "\"schema\"".getBytes(StandardCharsets.UTF_8);
+
+        /**
+         * the envelope up to the end of the schema, null if the events have no schema
+         */
+        private final byte[] head;
+        private final ChangeEventDecoder.RowParser<T> parser;
+
+        ResolvedParser(byte[] head, ChangeEventDecoder.RowParser<T> parser) {
+            this.head = head;
+            this.parser = parser;
+        }
+
+        /**
+         * @return true if the event starts with the same schema, or still
+         * has no schema, i.e. without tokenizing it
+         */
+        boolean matches(byte[] data) {
+            if (head == null) {
+                return !startsWithSchema(data);
+            }
+            if (data.length < head.length) {
+                return false;
+            }
+            for (int i = 0; i < head.length; i++) {
+                if (head[i] != data[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean startsWithSchema(byte[] data) {
+            int i = skipWhitespace(data, 0);
+            if (i >= data.length || data[i] != '{') {
+                return false;
+            }
+            i = skipWhitespace(data, i + 1);
+            if (data.length - i < SCHEMA_FIELD.length) {
+                return false;
+            }
+            for (int j = 0; j < SCHEMA_FIELD.length; j++) {
+                if (data[i + j] != SCHEMA_FIELD[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int skipWhitespace(byte[] data, int from) {
+            int i = from;
+            while (i < data.length && (data[i] == ' ' || data[i] == '\n' || data[i] == '\r' || data[i] == '\t')) {
+                i++;
+            }
+            return i;
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.message.BinaryMessageEncoder;
+import org.apache.avro.util.Utf8;
+import org.n52.kafka.sos.Settings;
+import org.n52.kafka.sos.model.Identifier;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Observation;
+
+/**
+ * Encodes measurements as Avro records using the single object encoding,
+ * i.e. every record is prefixed with the fingerprint of its schema. The
+ * schema is read from the file given by <code>codec.avro.schemaFile</code>
+ * or, if not set, from the schema shipped with this project
+ * (<code>measurement.avsc</code>). Custom schemas have to provide the
+ * fields of the shipped schema that they want to be populated. Times are
+ * written in microseconds unless the field of a custom schema has the
+ * logical type <code>timestamp-millis</code>.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class AvroMeasurementCodec implements MeasurementCodec {
+
+    public static final String NAME = "avro";
+
+    private static final String EMBEDDED_SCHEMA = "measurement.avsc";
+    private static final String[] TIME_FIELDS = {"phenomenonTimeStart", "phenomenonTimeEnd", "resultTime"};
+
+    private Schema schema;
+    private BinaryMessageEncoder<GenericRecord> encoder;
+    private boolean[] millis;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getContentType() {
+        return "avro/binary";
+    }
+
+    @Override
+    public void configure(Settings settings) throws IOException {
+        String schemaFile = settings.getString("codec.avro.schemaFile", null);
+        if (schemaFile != null) {
+            this.schema = new Schema.Parser().parse(new File(schemaFile));
+        }
+        else {
+            try (InputStream in = getClass().getResourceAsStream(EMBEDDED_SCHEMA)) {
+                this.schema = new Schema.Parser().parse(in);
+            }
+        }
+        this.encoder = new BinaryMessageEncoder<>(GenericData.get(), schema);
+        this.millis = new boolean[TIME_FIELDS.length];
+        for (int i = 0; i < TIME_FIELDS.length; i++) {
+            Schema.Field field = schema.getField(TIME_FIELDS[i]);
+            this.millis[i] = field != null && isMillis(field.schema());
+        }
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public byte[] encode(MeasurementObservation mo) throws IOException {
+        GenericRecord record = new GenericData.Record(schema);
+        put(record, "procedure", utf8(mo.getEncodedProcedure()));
+        put(record, "feature", utf8(mo.getEncodedFeature()));
+        put(record, "observableProperty", utf8(mo.getEncodedObservableProperty()));
+        putTime(record, 0, mo.getPhenomenonTimeStart());
+        putTime(record, 1, mo.getPhenomenonTimeEnd());
+        putTime(record, 2, mo.getResultTime());
+        put(record, "unit", utf8(mo.getEncodedUnit()));
+        put(record, "value", mo.getValue());
+        return encoder.encode(record).array();
+    }
+
+    /**
+     * Wraps the bytes of the interned identifier, avoiding to decode and
+     * re-encode it.
+     */
+    private static Utf8 utf8(Identifier identifier) {
+        return identifier != null ? new Utf8(identifier.asUnquotedUTF8()) : null;
+    }
+
+    private static boolean isMillis(Schema fieldSchema) {
+        if (fieldSchema.getType() == Schema.Type.UNION) {
+            return fieldSchema.getTypes().stream().anyMatch(AvroMeasurementCodec::isMillis);
+        }
+        return fieldSchema.getLogicalType() instanceof LogicalTypes.TimestampMillis;
+    }
+
+    private void putTime(GenericRecord record, int index, long micros) {
+        if (micros == Observation.NO_TIME) {
+            put(record, TIME_FIELDS[index], null);
+        }
+        else {
+            put(record, TIME_FIELDS[index], millis[index] ? Math.floorDiv(micros, 1000) : micros);
+        }
+    }
+
+    private void put(GenericRecord record, String field, Object value) {
+        if (schema.getField(field) != null) {
+            record.put(field, value);
+        }
+    }
+
+}
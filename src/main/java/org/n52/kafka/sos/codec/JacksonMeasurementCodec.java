@@ -0,0 +1,116 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import java.io.IOException;
+import org.n52.kafka.sos.Settings;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.MeasurementTemplate;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.TimeFormat;
+
+/**
+ * Base class for codecs backed by a Jackson streaming format. Measurements
+ * are written using the pre-encoded {@link MeasurementTemplate} of their
+ * series. Every thread reuses its own buffer, only the resulting byte
+ * array is allocated per measurement. The times are written in the
+ * format given by <code>codec.timeFormat</code> (<code>millis</code>,
+ * <code>micros</code> or <code>iso8601</code>), milliseconds by default.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public abstract class JacksonMeasurementCodec implements MeasurementCodec {
+
+    private final JsonFactory factory;
+    private final boolean reuseGenerator;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    private TimeFormat timeFormat = TimeFormat.MILLIS;
+
+    /**
+     * @param factory the factory of the format
+     * @param reuseGenerator if a generator may be reused for subsequent records. This is not possible for
+     * formats that write a header or share state (like back references) between the values of a generator
+     */
+    protected JacksonMeasurementCodec(JsonFactory factory, boolean reuseGenerator) {
+        this.factory = factory;
+        this.reuseGenerator = reuseGenerator;
+    }
+
+    @Override
+    public void configure(Settings settings) throws IOException {
+        try {
+            this.timeFormat = TimeFormat.forName(settings.getString("codec.timeFormat", "millis"));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown time format: " + settings.getString("codec.timeFormat", null), e);
+        }
+    }
+
+    @Override
+    public byte[] encode(MeasurementObservation mo) throws IOException {
+        Buffer buffer = buffers.get();
+        try {
+            JsonGenerator generator = buffer.generator();
+            templateFor(mo).write(mo, generator, timeFormat);
+            if (reuseGenerator) {
+                generator.flush();
+            }
+            else {
+                generator.close();
+            }
+            return buffer.bytes.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            /*
+             * the generator might be in an inconsistent state
+             */
+            buffers.remove();
+            throw e;
+        } finally {
+            buffer.bytes.reset();
+        }
+    }
+
+    private static MeasurementTemplate templateFor(MeasurementObservation mo) {
+        Series series = mo.getSeries();
+        if (series != null && series.getTemplate() != null) {
+            return series.getTemplate();
+        }
+        return new MeasurementTemplate(mo.getEncodedProcedure(), mo.getEncodedFeature(), mo.getEncodedObservableProperty(),
+                mo.getEncodedUnit());
+    }
+
+    private class Buffer {
+
+        private final ByteArrayBuilder bytes = new ByteArrayBuilder();
+        private JsonGenerator generator;
+
+        JsonGenerator generator() throws IOException {
+            if (!reuseGenerator) {
+                return factory.createGenerator(bytes);
+            }
+            if (generator == null) {
+                generator = factory.createGenerator(bytes);
+                generator.setRootValueSeparator(null);
+            }
+            return generator;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.codec;
+
+import java.io.IOException;
+import org.n52.kafka.sos.Settings;
+import org.n52.kafka.sos.model.MeasurementObservation;
+
+/**
+ * Encodes enriched measurements for the offering topics. Implementations
+ * are looked up by {@link #getName()} via {@link java.util.ServiceLoader}
+ * (see {@link MeasurementCodecs}) and have to be thread-safe.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public interface MeasurementCodec {
+
+    /**
+     * @return the name the codec is selected by, e.g. <code>json</code>
+     */
+    String getName();
+
+    /**
+     * @return the media type of the encoded records
+     */
+    String getContentType();
+
+    /**
+     * Called once before the first measurement is encoded.
+     *
+     * @param settings the settings
+     * @throws IOException if the codec cannot be configured
+     */
+    default void configure(Settings settings) throws IOException {
+    }
+
+    byte[] encode(MeasurementObservation mo) throws IOException;
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.codec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import org.n52.kafka.sos.Settings;
+
+/**
+ * Registry of the available {@link MeasurementCodec}s. The codec is
+ * selected by the <code>codec</code> setting and can be overridden per
+ * offering with <code>codec.&lt;offeringId&gt;</code>.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class MeasurementCodecs {
+
+    public static final String DEFAULT_CODEC = JsonMeasurementCodec.NAME;
+
+    private final Settings settings;
+    private final Map<String, MeasurementCodec> codecs = new HashMap<>();
+    private final Set<String> configured = new HashSet<>();
+
+    public MeasurementCodecs(Settings settings) {
+        this.settings = settings;
+        for (MeasurementCodec codec : ServiceLoader.load(MeasurementCodec.class)) {
+            this.codecs.put(codec.getName(), codec);
+        }
+    }
+
+    /**
+     * @param offeringId the offering id
+     * @return the configured codec of the offering
+     * @throws IOException if the configured codec is not available or cannot be configured
+     */
+    public MeasurementCodec forOffering(int offeringId) throws IOException {
+        return forName(settings.getString("codec." + offeringId, settings.getString("codec", DEFAULT_CODEC)));
+    }
+
+    public synchronized MeasurementCodec forName(String name) throws IOException {
+        MeasurementCodec codec = codecs.get(name);
+        if (codec == null) {
+            throw new IOException("Unknown codec: " + name + ", available: " + codecs.keySet());
+        }
+        if (!configured.contains(name)) {
+            codec.configure(settings);
+            configured.add(name);
+        }
+        return codec;
+    }
+
+}
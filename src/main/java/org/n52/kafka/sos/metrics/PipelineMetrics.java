@@ -0,0 +1,142 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the counters, gauges and histograms of the pipeline. Metrics
+ * are created on first use and, if enabled, registered as MBeans named
+ * <code>org.n52.kafka.sos:type=&lt;Counter|Gauge|Histogram&gt;,name=&lt;name&gt;</code>.
+ * Durations are recorded in nanoseconds and named with a
+ * <code>Nanos</code> suffix.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class PipelineMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineMetrics.class.getName());
+
+    private static final String DOMAIN = "org.n52.kafka.sos";
+
+    private final boolean jmx;
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry that does not register MBeans.
+     */
+    public PipelineMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param jmx true if the metrics should be registered at the platform MBean server
+     */
+    public PipelineMetrics(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public Counter counter(String name) {
+        return get(name, Counter.class, n -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return get(name, Histogram.class, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge. An existing gauge of the same name is kept.
+     *
+     * @param name the name
+     * @param supplier samples the current value
+     * @return the gauge
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        return get(name, Gauge.class, n -> new Gauge(supplier));
+    }
+
+    private <T> T get(String name, Class<T> type, Function<String, T> factory) {
+        Object metric = metrics.computeIfAbsent(name, n -> register(n, type, factory.apply(n)));
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    private Object register(String name, Class<?> type, Object metric) {
+        if (!jmx) {
+            return metric;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type.getSimpleName()
+                    + ",name=" + ObjectName.quote(name));
+            server.registerMBean(metric, objectName);
+        } catch (InstanceAlreadyExistsException ex) {
+            LOG.debug("MBean for metric {} exists already", name);
+        } catch (JMException ex) {
+            LOG.warn("Could not register MBean for metric {}: {}", name, ex.getMessage());
+        }
+        return metric;
+    }
+
+    /**
+     * Renders all metrics as plain text, one <code>name value</code> pair
+     * per line, sorted by name. Histograms are rendered as count, mean,
+     * max and percentiles.
+     *
+     * @return the metrics as text
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(metrics).forEach((name, metric) -> {
+            String key = name.replaceAll("[^A-Za-z0-9_]", "_");
+            if (metric instanceof Counter) {
+                line(sb, key, ((Counter) metric).getCount());
+            }
+            else if (metric instanceof Gauge) {
+                line(sb, key, ((Gauge) metric).getValue());
+            }
+            else if (metric instanceof Histogram) {
+                Histogram h = (Histogram) metric;
+                line(sb, key + "_count", h.getCount());
+                line(sb, key + "_mean", h.getMean());
+                line(sb, key + "_max", h.getMax());
+                line(sb, key + "_p50", h.get50thPercentile());
+                line(sb, key + "_p99", h.get99thPercentile());
+                line(sb, key + "_p999", h.get999thPercentile());
+            }
+        });
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String key, Object value) {
+        sb.append(key).append(' ').append(value).append('\n');
+    }
+
+}
@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -25,13 +29,13 @@ import com.google.common.base.MoreObjects;
  */
 public class Feature extends BaseEntity {
 
-    private final String identifier;
+    private final Identifier identifier;
     private final String name;
     private final int type;
 
     public Feature(String identifier, String name, int type, int id) {
         super(id);
-        this.identifier = identifier;
+        this.identifier = IdentifierPool.intern(identifier);
         this.name = name;
         this.type = type;
     }
@@ -45,7 +49,58 @@ public class Feature extends BaseEntity {
         return new Feature(identifierString, nameString, typeValue, idValue);
     }
 
+    public static Feature fromJson(JsonParser parser) throws IOException {
+        int idValue = 0;
+        String identifierString = null;
+        String nameString = null;
+        int typeValue = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "featureofinterestid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case "identifier":
+                    identifierString = parser.getValueAsString();
+                    break;
+                case "name":
+                    nameString = parser.getValueAsString();
+                    break;
+                case "featureofinteresttypeid":
+                    typeValue = parser.getValueAsInt();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new Feature(identifierString, nameString, typeValue, idValue);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("featureofinterestid", getId());
+        Identifier.writeField(generator, "identifier", identifier);
+        generator.writeStringField("name", name);
+        generator.writeNumberField("featureofinteresttypeid", type);
+        generator.writeEndObject();
+    }
+
     public String getIdentifier() {
+        return Identifier.valueOf(identifier);
+    }
+
+    /**
+     * @return the interned identifier, ready to be written by the encoders
+     */
+    public Identifier getEncodedIdentifier() {
         return identifier;
     }
 
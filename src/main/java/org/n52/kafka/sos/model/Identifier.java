@@ -0,0 +1,190 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An identifier (or unit) held as UTF-8 bytes, together with its quoted and
+ * escaped JSON form. URIs rarely need escaping, in which case both forms
+ * share one array. The string value is decoded on demand only, the encoders
+ * write the bytes directly. Instances are obtained from
+ * {@link IdentifierPool#intern(String)}.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public final class Identifier implements SerializableString {
+
+    private final byte[] utf8;
+    private final byte[] quotedUtf8;
+    private final int charLength;
+    private final int hash;
+
+    Identifier(String value) {
+        this.utf8 = value.getBytes(StandardCharsets.UTF_8);
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        this.quotedUtf8 = Arrays.equals(quoted, utf8) ? utf8 : quoted;
+        this.charLength = value.length();
+        this.hash = Arrays.hashCode(utf8);
+    }
+
+    /**
+     * @param value the identifier, may be null
+     * @return the string value of the identifier or null
+     */
+    public static String valueOf(Identifier value) {
+        return value != null ? value.getValue() : null;
+    }
+
+    /**
+     * Writes a string field, or a null field if the value is null.
+     *
+     * @param generator the generator
+     * @param name the field name
+     * @param value the value, may be null
+     * @throws IOException if writing fails
+     */
+    static void writeField(JsonGenerator generator, String name, Identifier value) throws IOException {
+        generator.writeFieldName(name);
+        if (value != null) {
+            generator.writeString(value);
+        }
+        else {
+            generator.writeNull();
+        }
+    }
+
+    @Override
+    public String getValue() {
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int charLength() {
+        return charLength;
+    }
+
+    @Override
+    public char[] asQuotedChars() {
+        return JsonStringEncoder.getInstance().quoteAsString(getValue());
+    }
+
+    /**
+     * @return the UTF-8 bytes. The array is shared and must not be modified
+     */
+    @Override
+    public byte[] asUnquotedUTF8() {
+        return utf8;
+    }
+
+    /**
+     * @return the escaped UTF-8 bytes. The array is shared and must not be modified
+     */
+    @Override
+    public byte[] asQuotedUTF8() {
+        return quotedUtf8;
+    }
+
+    @Override
+    public int appendQuotedUTF8(byte[] buffer, int offset) {
+        return append(quotedUtf8, buffer, offset);
+    }
+
+    @Override
+    public int appendQuoted(char[] buffer, int offset) {
+        return append(asQuotedChars(), buffer, offset);
+    }
+
+    @Override
+    public int appendUnquotedUTF8(byte[] buffer, int offset) {
+        return append(utf8, buffer, offset);
+    }
+
+    @Override
+    public int appendUnquoted(char[] buffer, int offset) {
+        return append(getValue().toCharArray(), buffer, offset);
+    }
+
+    @Override
+    public int writeQuotedUTF8(OutputStream out) throws IOException {
+        out.write(quotedUtf8);
+        return quotedUtf8.length;
+    }
+
+    @Override
+    public int writeUnquotedUTF8(OutputStream out) throws IOException {
+        out.write(utf8);
+        return utf8.length;
+    }
+
+    @Override
+    public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+        return put(quotedUtf8, buffer);
+    }
+
+    @Override
+    public int putUnquotedUTF8(ByteBuffer buffer) throws IOException {
+        return put(utf8, buffer);
+    }
+
+    private static int append(byte[] source, byte[] buffer, int offset) {
+        if (offset + source.length > buffer.length) {
+            return -1;
+        }
+        System.arraycopy(source, 0, buffer, offset, source.length);
+        return source.length;
+    }
+
+    private static int append(char[] source, char[] buffer, int offset) {
+        if (offset + source.length > buffer.length) {
+            return -1;
+        }
+        System.arraycopy(source, 0, buffer, offset, source.length);
+        return source.length;
+    }
+
+    private static int put(byte[] source, ByteBuffer buffer) {
+        if (source.length > buffer.remaining()) {
+            return -1;
+        }
+        buffer.put(source);
+        return source.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Identifier && Arrays.equals(utf8, ((Identifier) obj).utf8);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Interns the identifiers and units of the metadata entities. Procedures,
+ * features, observable properties and units are shared by many series, so
+ * every distinct value is held only once as {@link Identifier}, however
+ * often its row is received or restored. Identifiers that are no longer
+ * referenced by any entity are released by the garbage collector.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public final class IdentifierPool {
+
+    private static final Interner<Identifier> POOL = Interners.newWeakInterner();
+
+    private IdentifierPool() {
+    }
+
+    /**
+     * @param value the value, may be null
+     * @return the canonical identifier of the value, or null
+     */
+    public static Identifier intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return POOL.intern(new Identifier(value));
+    }
+
+}
@@ -18,7 +18,6 @@ package org.n52.kafka.sos.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.n52.kafka.sos.ObservationNotAvailableException;
-import java.util.Date;
 import org.n52.kafka.sos.MetadataCache;
 
 /**
@@ -27,17 +26,35 @@ import org.n52.kafka.sos.MetadataCache;
  */
 public class MeasurementObservation {
 
-    private final String procedure;
-    private final String feature;
-    private final String observableProperty;
-    private final Date phenomenonTimeStart;
-    private final Date phenomenonTimeEnd;
-    private final Date resultTime;
-    private final String unit;
+    private final Identifier procedure;
+    private final Identifier feature;
+    private final Identifier observableProperty;
+    private final long phenomenonTimeStart;
+    private final long phenomenonTimeEnd;
+    private final long resultTime;
+    private final Identifier unit;
     private final double value;
     @JsonIgnore private final Series series;
 
-    public MeasurementObservation(String procedure, String feature, String observableProperty, Date phenomenonTimeStart, Date phenomenonTimeEnd, Date resultTime, String unit, double value, Series series) {
+    /**
+     * @param procedure the procedure identifier
+     * @param feature the feature identifier
+     * @param observableProperty the observable property identifier
+     * @param phenomenonTimeStart the start of the phenomenon time in microseconds since the epoch
+     * @param phenomenonTimeEnd the end of the phenomenon time in microseconds since the epoch
+     * @param resultTime the result time in microseconds since the epoch
+     * @param unit the unit
+     * @param value the value
+     * @param series the enriched series
+     */
+    public MeasurementObservation(String procedure, String feature, String observableProperty, long phenomenonTimeStart, long phenomenonTimeEnd, long resultTime, String unit, double value, Series series) {
+        this(IdentifierPool.intern(procedure), IdentifierPool.intern(feature), IdentifierPool.intern(observableProperty),
+                phenomenonTimeStart, phenomenonTimeEnd, resultTime, IdentifierPool.intern(unit), value, series);
+    }
+
+    private MeasurementObservation(Identifier procedure, Identifier feature, Identifier observableProperty,
+            long phenomenonTimeStart, long phenomenonTimeEnd, long resultTime, Identifier unit, double value,
+            Series series) {
         this.procedure = procedure;
         this.feature = feature;
         this.observableProperty = observableProperty;
@@ -51,18 +68,38 @@ public class MeasurementObservation {
 
 
     public String getProcedure() {
+        return Identifier.valueOf(procedure);
+    }
+
+    @JsonIgnore
+    public Identifier getEncodedProcedure() {
         return procedure;
     }
 
     public String getFeature() {
+        return Identifier.valueOf(feature);
+    }
+
+    @JsonIgnore
+    public Identifier getEncodedFeature() {
         return feature;
     }
 
     public String getObservableProperty() {
+        return Identifier.valueOf(observableProperty);
+    }
+
+    @JsonIgnore
+    public Identifier getEncodedObservableProperty() {
         return observableProperty;
     }
 
     public String getUnit() {
+        return Identifier.valueOf(unit);
+    }
+
+    @JsonIgnore
+    public Identifier getEncodedUnit() {
         return unit;
     }
 
@@ -70,15 +107,24 @@ public class MeasurementObservation {
         return value;
     }
 
-    public Date getPhenomenonTimeEnd() {
+    /**
+     * @return the end of the phenomenon time in microseconds since the epoch or {@link Observation#NO_TIME}
+     */
+    public long getPhenomenonTimeEnd() {
         return phenomenonTimeEnd;
     }
 
-    public Date getPhenomenonTimeStart() {
+    /**
+     * @return the start of the phenomenon time in microseconds since the epoch or {@link Observation#NO_TIME}
+     */
+    public long getPhenomenonTimeStart() {
         return phenomenonTimeStart;
     }
 
-    public Date getResultTime() {
+    /**
+     * @return the result time in microseconds since the epoch or {@link Observation#NO_TIME}
+     */
+    public long getResultTime() {
         return resultTime;
     }
 
@@ -88,35 +134,37 @@ public class MeasurementObservation {
     }
     
     public static MeasurementObservation fromValue(Value value, MetadataCache cache) throws ObservationNotAvailableException {
-        Observation obs = cache.getObservations().get(value.getObservationId());
+        Observation obs = cache.getObservation(value.getObservationId());
 
         if (obs == null) {
-            throw new ObservationNotAvailableException("Observation not available for id: " + value.getObservationId());
+            throw new ObservationNotAvailableException("Observation not available for id: " + value.getObservationId(),
+                    ObservationNotAvailableException.MissingEntity.OBSERVATION, value.getObservationId());
         }
 
-        Series series = cache.getSeries().get(obs.getSeriesId());
+        Series series = cache.getEnrichedSeries(obs.getSeriesId());
         if (series == null) {
-            throw new ObservationNotAvailableException("Observation not available. No series for id: " + obs.getSeriesId());
+            throw new ObservationNotAvailableException("Observation not available. No series for id: " + obs.getSeriesId(),
+                    ObservationNotAvailableException.MissingEntity.SERIES, obs.getSeriesId());
         }
 
-        if (!series.isEnriched()) {
-            Unit unit = cache.getUnits().get(series.getUnitId());
-            Feature feature = cache.getFeatures().get(series.getFeatureId());
-            ObservableProperty obsProp = cache.getObservableProperties().get(series.getObservablePropertyId());
-            Procedure proc = cache.getProcedures().get(series.getProcedureId());
-            series.setFeature(feature);
-            series.setUnit(unit);
-            series.setObservableProperty(obsProp);
-            series.setProcedure(proc);
-        }
+        return of(value, obs, series);
+    }
 
-        return new MeasurementObservation(series.getProcedure() != null ? series.getProcedure().getIdentifier() : null,
-                series.getFeature() != null ? series.getFeature().getIdentifier() : null,
-                series.getObservableProperty() != null ? series.getObservableProperty().getIdentifier() : null,
+    /**
+     * @param value the value
+     * @param obs the observation of the value
+     * @param series the enriched series of the observation
+     * @return the measurement
+     */
+    public static MeasurementObservation of(Value value, Observation obs, Series series) {
+        return new MeasurementObservation(
+                series.getProcedure() != null ? series.getProcedure().getEncodedIdentifier() : null,
+                series.getFeature() != null ? series.getFeature().getEncodedIdentifier() : null,
+                series.getObservableProperty() != null ? series.getObservableProperty().getEncodedIdentifier() : null,
                 obs.getPhenomenonTimeStart(),
                 obs.getPhenomenonTimeEnd(),
                 obs.getResultTime(),
-                series.getUnit() != null ? series.getUnit().getUnit() : null,
+                series.getUnit() != null ? series.getUnit().getEncodedUnit() : null,
                 value.getValue(),
                 series);
     }
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
+
+/**
+ * Pre-encoded JSON fragments of the series metadata that is repeated in
+ * every {@link MeasurementObservation} of a series. Field names are
+ * encoded once, the identifiers are the interned {@link Identifier}s of
+ * the metadata entities, so that writing a measurement only has to encode
+ * its times and value.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class MeasurementTemplate {
+
+    private static final SerializableString PROCEDURE = new SerializedString("procedure");
+    private static final SerializableString FEATURE = new SerializedString("feature");
+    private static final SerializableString OBSERVABLE_PROPERTY = new SerializedString("observableProperty");
+    private static final SerializableString PHENOMENON_TIME_START = new SerializedString("phenomenonTimeStart");
+    private static final SerializableString PHENOMENON_TIME_END = new SerializedString("phenomenonTimeEnd");
+    private static final SerializableString RESULT_TIME = new SerializedString("resultTime");
+    private static final SerializableString UNIT = new SerializedString("unit");
+    private static final SerializableString VALUE = new SerializedString("value");
+
+    private final Identifier procedure;
+    private final Identifier feature;
+    private final Identifier observableProperty;
+    private final Identifier unit;
+
+    /**
+     * @param procedure the procedure identifier, may be null
+     * @param feature the feature identifier, may be null
+     * @param observableProperty the observable property identifier, may be null
+     * @param unit the unit, may be null
+     */
+    public MeasurementTemplate(Identifier procedure, Identifier feature, Identifier observableProperty,
+            Identifier unit) {
+        this.procedure = procedure;
+        this.feature = feature;
+        this.observableProperty = observableProperty;
+        this.unit = unit;
+    }
+
+    /**
+     * Writes a measurement as JSON object with the times in milliseconds.
+     *
+     * @param mo the measurement
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void write(MeasurementObservation mo, JsonGenerator generator) throws IOException {
+        write(mo, generator, TimeFormat.MILLIS);
+    }
+
+    /**
+     * Writes a measurement as JSON object. Null values are omitted.
+     *
+     * @param mo the measurement
+     * @param generator the generator
+     * @param timeFormat the format of the times
+     * @throws IOException if writing fails
+     */
+    public void write(MeasurementObservation mo, JsonGenerator generator, TimeFormat timeFormat)
+            throws IOException {
+        generator.writeStartObject();
+        writeString(generator, PROCEDURE, procedure);
+        writeString(generator, FEATURE, feature);
+        writeString(generator, OBSERVABLE_PROPERTY, observableProperty);
+        writeTime(generator, PHENOMENON_TIME_START, mo.getPhenomenonTimeStart(), timeFormat);
+        writeTime(generator, PHENOMENON_TIME_END, mo.getPhenomenonTimeEnd(), timeFormat);
+        writeTime(generator, RESULT_TIME, mo.getResultTime(), timeFormat);
+        writeString(generator, UNIT, unit);
+        generator.writeFieldName(VALUE);
+        generator.writeNumber(mo.getValue());
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, SerializableString name, SerializableString value)
+            throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeString(value);
+        }
+    }
+
+    private static void writeTime(JsonGenerator generator, SerializableString name, long micros,
+            TimeFormat timeFormat) throws IOException {
+        if (micros != Observation.NO_TIME) {
+            generator.writeFieldName(name);
+            timeFormat.write(micros, generator);
+        }
+    }
+
+}
@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -25,12 +29,12 @@ import com.google.common.base.MoreObjects;
  */
 public class ObservableProperty extends BaseEntity {
 
-    private final String identifier;
+    private final Identifier identifier;
     private final String name;
 
     public ObservableProperty(String identifier, String name, int id) {
         super(id);
-        this.identifier = identifier;
+        this.identifier = IdentifierPool.intern(identifier);
         this.name = name;
     }
 
@@ -41,7 +45,53 @@ public class ObservableProperty extends BaseEntity {
         return new ObservableProperty(identifierString, nameString, idValue);
     }
 
+    public static ObservableProperty fromJson(JsonParser parser) throws IOException {
+        int idValue = 0;
+        String identifierString = null;
+        String nameString = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "observablepropertyid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case "identifier":
+                    identifierString = parser.getValueAsString();
+                    break;
+                case "name":
+                    nameString = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new ObservableProperty(identifierString, nameString, idValue);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("observablepropertyid", getId());
+        Identifier.writeField(generator, "identifier", identifier);
+        generator.writeStringField("name", name);
+        generator.writeEndObject();
+    }
+
     public String getIdentifier() {
+        return Identifier.valueOf(identifier);
+    }
+
+    /**
+     * @return the interned identifier, ready to be written by the encoders
+     */
+    public Identifier getEncodedIdentifier() {
         return identifier;
     }
 
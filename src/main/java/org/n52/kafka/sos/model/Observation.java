@@ -16,70 +16,209 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
-import java.util.Date;
+import java.io.IOException;
+import java.util.Map;
+import org.n52.kafka.sos.ChangeEventDecoder;
 
 /**
+ * An observation row. Times are held as microseconds since the epoch. Only
+ * the columns needed to emit the values of the observation are retained,
+ * the (unique) identifier of the row is skipped when reading it.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
 public class Observation extends BaseEntity {
 
+    /**
+     * Marks a time column that is null.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final String PHENOMENON_TIME_START = "phenomenontimestart";
+    private static final String PHENOMENON_TIME_END = "phenomenontimeend";
+    private static final String RESULT_TIME = "resulttime";
+
     private final int seriesId;
-    private final String identifier;
-    private final Date phenomenonTimeStart;
-    private final Date phenomenonTimeEnd;
-    private final Date resultTime;
+    private final long phenomenonTimeStart;
+    private final long phenomenonTimeEnd;
+    private final long resultTime;
 
-    public Observation(int seriesId, String identifier, Date phenomenonTimeStart, Date phenomenonTimeEnd, Date resultTime, int id) {
+    /**
+     * @param seriesId the series id
+     * @param phenomenonTimeStart the start of the phenomenon time in microseconds since the epoch
+     * @param phenomenonTimeEnd the end of the phenomenon time in microseconds since the epoch
+     * @param resultTime the result time in microseconds since the epoch
+     * @param id the observation id
+     */
+    public Observation(int seriesId, long phenomenonTimeStart, long phenomenonTimeEnd, long resultTime, int id) {
         super(id);
         this.seriesId = seriesId;
-        this.identifier = identifier;
         this.phenomenonTimeStart = phenomenonTimeStart;
         this.phenomenonTimeEnd = phenomenonTimeEnd;
         this.resultTime = resultTime;
     }
 
     public static Observation fromJson(JsonNode json) {
+        return fromJson(json, TimePrecision.MICROS);
+    }
+
+    /**
+     * @param json the row
+     * @param precision the precision of the time columns
+     * @return the observation
+     */
+    public static Observation fromJson(JsonNode json, TimePrecision precision) {
         int seriesIdValue = json.get("seriesid").asInt();
         int idValue = json.get("observationid").asInt();
-        String identifierString = json.get("identifier").asText();
-        Date phenomenonTimeStartValue = Observation.toDate(json.get("phenomenontimestart").asLong());
-        Date phenomenonTimeEndValue = Observation.toDate(json.get("phenomenontimeend").asLong());
-        Date resultTimeValue = Observation.toDate(json.get("resulttime").asLong());
-        return new Observation(seriesIdValue, identifierString, phenomenonTimeStartValue, phenomenonTimeEndValue, resultTimeValue, idValue);
+        long phenomenonTimeStartValue = readTime(json.get(PHENOMENON_TIME_START), precision);
+        long phenomenonTimeEndValue = readTime(json.get(PHENOMENON_TIME_END), precision);
+        long resultTimeValue = readTime(json.get(RESULT_TIME), precision);
+        return new Observation(seriesIdValue, phenomenonTimeStartValue, phenomenonTimeEndValue, resultTimeValue, idValue);
+    }
+
+    /**
+     * Reads a row as written by {@link #toJson(JsonGenerator)}, i.e. with
+     * times in microseconds.
+     *
+     * @param parser the parser positioned at the start of the row
+     * @return the observation
+     * @throws IOException if reading fails
+     */
+    public static Observation fromJson(JsonParser parser) throws IOException {
+        return fromJson(parser, TimePrecision.MICROS, TimePrecision.MICROS, TimePrecision.MICROS);
+    }
+
+    /**
+     * @param columnTypes the semantic types of the columns as declared in the schema of the change events
+     * @return a parser reading the time columns with the declared precision. Columns without a semantic
+     * type are read as microseconds
+     * @throws IllegalArgumentException if a time column declares a type that is not a known timestamp type, e.g.
+     * <code>io.debezium.time.ZonedTimestamp</code>
+     */
+    public static ChangeEventDecoder.RowParser<Observation> parserFor(Map<String, String> columnTypes) {
+        TimePrecision start = precisionOf(columnTypes, PHENOMENON_TIME_START);
+        TimePrecision end = precisionOf(columnTypes, PHENOMENON_TIME_END);
+        TimePrecision result = precisionOf(columnTypes, RESULT_TIME);
+        return parser -> fromJson(parser, start, end, result);
+    }
+
+    private static TimePrecision precisionOf(Map<String, String> columnTypes, String column) {
+        String type = columnTypes.get(column);
+        if (type == null) {
+            return TimePrecision.MICROS;
+        }
+        TimePrecision precision = TimePrecision.forSchemaName(type);
+        if (precision == null) {
+            throw new IllegalArgumentException("Unsupported type " + type + " of column " + column);
+        }
+        return precision;
     }
 
-    private static Date toDate(long asLong) {
-        if (asLong > 1000000000000000000L) {
-            return new Date(asLong / 1000 / 1000);
+    private static Observation fromJson(JsonParser parser, TimePrecision phenomenonTimeStartPrecision,
+            TimePrecision phenomenonTimeEndPrecision, TimePrecision resultTimePrecision) throws IOException {
+        int seriesIdValue = 0;
+        int idValue = 0;
+        long phenomenonTimeStartValue = NO_TIME;
+        long phenomenonTimeEndValue = NO_TIME;
+        long resultTimeValue = NO_TIME;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "seriesid":
+                    seriesIdValue = parser.getValueAsInt();
+                    break;
+                case "observationid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case PHENOMENON_TIME_START:
+                    phenomenonTimeStartValue = readTime(parser, phenomenonTimeStartPrecision);
+                    break;
+                case PHENOMENON_TIME_END:
+                    phenomenonTimeEndValue = readTime(parser, phenomenonTimeEndPrecision);
+                    break;
+                case RESULT_TIME:
+                    resultTimeValue = readTime(parser, resultTimePrecision);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
         }
+        return new Observation(seriesIdValue, phenomenonTimeStartValue, phenomenonTimeEndValue, resultTimeValue, idValue);
+    }
 
-        if (asLong > 1000000000000000L) {
-            return new Date(asLong / 1000);
+    private static long readTime(JsonParser parser, TimePrecision precision) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return NO_TIME;
+        }
+        if (parser.getCurrentToken() != JsonToken.VALUE_NUMBER_INT) {
+            throw new JsonParseException(parser, "Expected a numeric timestamp in column "
+                    + parser.getCurrentName() + ", got " + parser.getCurrentToken());
         }
+        return precision.toMicros(parser.getLongValue());
+    }
 
-        return new Date(asLong);
+    private static long readTime(JsonNode node, TimePrecision precision) {
+        if (node == null || node.isNull()) {
+            return NO_TIME;
+        }
+        if (!node.isIntegralNumber()) {
+            throw new IllegalArgumentException("Expected a numeric timestamp, got " + node);
+        }
+        return precision.toMicros(node.asLong());
     }
 
-    public int getSeriesId() {
-        return seriesId;
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("observationid", getId());
+        generator.writeNumberField("seriesid", seriesId);
+        writeTime(generator, PHENOMENON_TIME_START, phenomenonTimeStart);
+        writeTime(generator, PHENOMENON_TIME_END, phenomenonTimeEnd);
+        writeTime(generator, RESULT_TIME, resultTime);
+        generator.writeEndObject();
+    }
+
+    private static void writeTime(JsonGenerator generator, String column, long value) throws IOException {
+        if (value != NO_TIME) {
+            generator.writeNumberField(column, value);
+        }
     }
 
-    public String getIdentifier() {
-        return identifier;
+    public int getSeriesId() {
+        return seriesId;
     }
 
-    public Date getPhenomenonTimeStart() {
+    /**
+     * @return the start of the phenomenon time in microseconds since the epoch or {@link #NO_TIME}
+     */
+    public long getPhenomenonTimeStart() {
         return phenomenonTimeStart;
     }
 
-    public Date getPhenomenonTimeEnd() {
+    /**
+     * @return the end of the phenomenon time in microseconds since the epoch or {@link #NO_TIME}
+     */
+    public long getPhenomenonTimeEnd() {
         return phenomenonTimeEnd;
     }
 
-    public Date getResultTime() {
+    /**
+     * @return the result time in microseconds since the epoch or {@link #NO_TIME}
+     */
+    public long getResultTime() {
         return resultTime;
     }
 
@@ -88,7 +227,6 @@ public class Observation extends BaseEntity {
         return MoreObjects.toStringHelper(this)
                 .add("id", getId())
                 .add("seriesId", seriesId)
-                .add("identifier", identifier)
                 .add("phenomenonTimeStart", phenomenonTimeStart)
                 .add("phenomenonTimeEnd", phenomenonTimeEnd)
                 .add("resultTime", resultTime)
@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -25,11 +29,11 @@ import com.google.common.base.MoreObjects;
  */
 public class Procedure extends BaseEntity {
 
-    private final String identifier;
+    private final Identifier identifier;
 
     public Procedure(String identifier, int id) {
         super(id);
-        this.identifier = identifier;
+        this.identifier = IdentifierPool.intern(identifier);
     }
 
     public static Procedure fromJson(JsonNode json) {
@@ -38,7 +42,48 @@ public class Procedure extends BaseEntity {
         return new Procedure(identifierString, idValue);
     }
 
+    public static Procedure fromJson(JsonParser parser) throws IOException {
+        int idValue = 0;
+        String identifierString = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "procedureid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case "identifier":
+                    identifierString = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new Procedure(identifierString, idValue);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("procedureid", getId());
+        Identifier.writeField(generator, "identifier", identifier);
+        generator.writeEndObject();
+    }
+
     public String getIdentifier() {
+        return Identifier.valueOf(identifier);
+    }
+
+    /**
+     * @return the interned identifier, ready to be written by the encoders
+     */
+    public Identifier getEncodedIdentifier() {
         return identifier;
     }
 
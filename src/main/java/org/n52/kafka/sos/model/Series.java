@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -31,18 +35,34 @@ public class Series extends BaseEntity {
     private final int offeringId;
     private final int unitId;
 
-    private Unit unit;
-    private Feature feature;
-    private ObservableProperty observableProperty;
-    private Procedure procedure;
+    private final Unit unit;
+    private final Feature feature;
+    private final ObservableProperty observableProperty;
+    private final Procedure procedure;
+    private final MeasurementTemplate template;
 
     public Series(int featureId, int observablePropertyId, int procedureId, int offeringId, int unitId, int id) {
+        this(featureId, observablePropertyId, procedureId, offeringId, unitId, id, null, null, null, null);
+    }
+
+    private Series(int featureId, int observablePropertyId, int procedureId, int offeringId, int unitId, int id,
+            Unit unit, Feature feature, ObservableProperty observableProperty, Procedure procedure) {
         super(id);
         this.featureId = featureId;
         this.observablePropertyId = observablePropertyId;
         this.procedureId = procedureId;
         this.offeringId = offeringId;
         this.unitId = unitId;
+        this.unit = unit;
+        this.feature = feature;
+        this.observableProperty = observableProperty;
+        this.procedure = procedure;
+        this.template = isEnriched()
+                ? new MeasurementTemplate(procedure != null ? procedure.getEncodedIdentifier() : null,
+                        feature != null ? feature.getEncodedIdentifier() : null,
+                        observableProperty != null ? observableProperty.getEncodedIdentifier() : null,
+                        unit != null ? unit.getEncodedUnit() : null)
+                : null;
     }
 
     public static Series fromJson(JsonNode json) {
@@ -55,6 +75,60 @@ public class Series extends BaseEntity {
         return new Series(featureIdValue, observablePropertyIdValue, procedureIdValue, offeringIdValue, unitIdValue, idValue);
     }
 
+    public static Series fromJson(JsonParser parser) throws IOException {
+        int featureIdValue = 0;
+        int observablePropertyIdValue = 0;
+        int procedureIdValue = 0;
+        int offeringIdValue = 0;
+        int unitIdValue = 0;
+        int idValue = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "featureofinterestid":
+                    featureIdValue = parser.getValueAsInt();
+                    break;
+                case "observablepropertyid":
+                    observablePropertyIdValue = parser.getValueAsInt();
+                    break;
+                case "procedureid":
+                    procedureIdValue = parser.getValueAsInt();
+                    break;
+                case "offeringid":
+                    offeringIdValue = parser.getValueAsInt();
+                    break;
+                case "unitid":
+                    unitIdValue = parser.getValueAsInt();
+                    break;
+                case "seriesid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new Series(featureIdValue, observablePropertyIdValue, procedureIdValue, offeringIdValue, unitIdValue, idValue);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("seriesid", getId());
+        generator.writeNumberField("featureofinterestid", featureId);
+        generator.writeNumberField("observablepropertyid", observablePropertyId);
+        generator.writeNumberField("procedureid", procedureId);
+        generator.writeNumberField("offeringid", offeringId);
+        generator.writeNumberField("unitid", unitId);
+        generator.writeEndObject();
+    }
+
     public int getFeatureId() {
         return featureId;
     }
@@ -79,32 +153,38 @@ public class Series extends BaseEntity {
         return unit;
     }
 
-    public void setUnit(Unit unit) {
-        this.unit = unit;
-    }
-
     public Feature getFeature() {
         return feature;
     }
 
-    public void setFeature(Feature feature) {
-        this.feature = feature;
-    }
-
     public ObservableProperty getObservableProperty() {
         return observableProperty;
     }
 
-    public void setObservableProperty(ObservableProperty observableProperty) {
-        this.observableProperty = observableProperty;
-    }
-
     public Procedure getProcedure() {
         return procedure;
     }
 
-    public void setProcedure(Procedure procedure) {
-        this.procedure = procedure;
+    /**
+     * Creates an enriched copy of this series. Instances are immutable, so
+     * the copy can be shared between threads.
+     *
+     * @param unit the unit, may be null
+     * @param feature the feature, may be null
+     * @param observableProperty the observable property, may be null
+     * @param procedure the procedure, may be null
+     * @return the enriched series
+     */
+    public Series enrich(Unit unit, Feature feature, ObservableProperty observableProperty, Procedure procedure) {
+        return new Series(featureId, observablePropertyId, procedureId, offeringId, unitId, getId(),
+                unit, feature, observableProperty, procedure);
+    }
+
+    /**
+     * @return the pre-encoded metadata of an enriched series, null otherwise
+     */
+    public MeasurementTemplate getTemplate() {
+        return template;
     }
 
     public boolean isEnriched() {
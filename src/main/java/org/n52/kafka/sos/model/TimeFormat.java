@@ -0,0 +1,136 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Output format of the times of a measurement. All formats are written
+ * from the epoch microseconds without allocating intermediate objects.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public enum TimeFormat {
+
+    /**
+     * Milliseconds since the epoch, the format of earlier versions.
+     */
+    MILLIS {
+        @Override
+        public void write(long micros, JsonGenerator generator) throws IOException {
+            generator.writeNumber(Math.floorDiv(micros, 1000));
+        }
+    },
+    /**
+     * Microseconds since the epoch.
+     */
+    MICROS {
+        @Override
+        public void write(long micros, JsonGenerator generator) throws IOException {
+            generator.writeNumber(micros);
+        }
+    },
+    /**
+     * ISO 8601 in UTC with microseconds, e.g. <code>2012-11-19T13:00:00.000000Z</code>.
+     */
+    ISO_8601 {
+        @Override
+        public void write(long micros, JsonGenerator generator) throws IOException {
+            char[] buffer = ISO_BUFFERS.get();
+            int length = formatIso(micros, buffer);
+            if (length < 0) {
+                generator.writeString(Instant.EPOCH.plus(micros, ChronoUnit.MICROS).toString());
+            }
+            else {
+                generator.writeString(buffer, 0, length);
+            }
+        }
+    };
+
+    private static final long MICROS_PER_DAY = 86400L * 1000 * 1000;
+    private static final ThreadLocal<char[]> ISO_BUFFERS = ThreadLocal.withInitial(() -> new char[27]);
+
+    /**
+     * @param micros the time in microseconds since the epoch
+     * @param generator the generator to write the time value to
+     * @throws IOException if writing fails
+     */
+    public abstract void write(long micros, JsonGenerator generator) throws IOException;
+
+    /**
+     * @param name the name, e.g. <code>iso8601</code>
+     * @return the format
+     * @throws IllegalArgumentException if there is no format of that name
+     */
+    public static TimeFormat forName(String name) {
+        String normalized = name.trim().toUpperCase(Locale.ROOT);
+        return "ISO8601".equals(normalized) ? ISO_8601 : valueOf(normalized);
+    }
+
+    /**
+     * Formats years 0 to 9999 into the buffer, based on the civil date
+     * conversion of http://howardhinnant.github.io/date_algorithms.html
+     *
+     * @return the number of characters written or -1 if the year is out of range
+     */
+    static int formatIso(long micros, char[] buffer) {
+        long days = Math.floorDiv(micros, MICROS_PER_DAY);
+        long microsOfDay = Math.floorMod(micros, MICROS_PER_DAY);
+
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return -1;
+        }
+
+        long seconds = microsOfDay / 1000000;
+        digits(buffer, 0, year, 4);
+        buffer[4] = '-';
+        digits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        digits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        digits(buffer, 11, seconds / 3600, 2);
+        buffer[13] = ':';
+        digits(buffer, 14, seconds / 60 % 60, 2);
+        buffer[16] = ':';
+        digits(buffer, 17, seconds % 60, 2);
+        buffer[19] = '.';
+        digits(buffer, 20, microsOfDay % 1000000, 6);
+        buffer[26] = 'Z';
+        return 27;
+    }
+
+    private static void digits(char[] buffer, int offset, long value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+}
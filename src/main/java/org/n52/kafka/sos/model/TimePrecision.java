@@ -0,0 +1,75 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+/**
+ * Precision of the timestamp columns in the Debezium change events. The
+ * precision is declared by the semantic type of the column in the schema
+ * of the event, e.g. <code>io.debezium.time.MicroTimestamp</code>, and
+ * depends on the <code>time.precision.mode</code> of the connector.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public enum TimePrecision {
+
+    MILLIS {
+        @Override
+        public long toMicros(long value) {
+            return value * 1000;
+        }
+    },
+    MICROS {
+        @Override
+        public long toMicros(long value) {
+            return value;
+        }
+    },
+    NANOS {
+        @Override
+        public long toMicros(long value) {
+            return Math.floorDiv(value, 1000);
+        }
+    };
+
+    /**
+     * @param value a timestamp of this precision
+     * @return the timestamp in microseconds since the epoch
+     */
+    public abstract long toMicros(long value);
+
+    /**
+     * @param schemaName the semantic type of the column, may be null
+     * @return the precision declared by the semantic type or null if the type is not a known timestamp type
+     */
+    public static TimePrecision forSchemaName(String schemaName) {
+        if (schemaName == null) {
+            return null;
+        }
+        switch (schemaName) {
+            case "io.debezium.time.Timestamp":
+            case "org.apache.kafka.connect.data.Timestamp":
+                return MILLIS;
+            case "io.debezium.time.MicroTimestamp":
+                return MICROS;
+            case "io.debezium.time.NanoTimestamp":
+                return NANOS;
+            default:
+                return null;
+        }
+    }
+
+}
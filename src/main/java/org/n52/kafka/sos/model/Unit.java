@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -25,11 +29,11 @@ import com.google.common.base.MoreObjects;
  */
 public class Unit extends BaseEntity {
 
-    private final String unit;
+    private final Identifier unit;
 
     public Unit(String unit, int id) {
         super(id);
-        this.unit = unit;
+        this.unit = IdentifierPool.intern(unit);
     }
 
     public static Unit fromJson(JsonNode json) {
@@ -38,7 +42,48 @@ public class Unit extends BaseEntity {
         return new Unit(unitValue, idValue);
     }
 
+    public static Unit fromJson(JsonParser parser) throws IOException {
+        int idValue = 0;
+        String unitValue = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "unitid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case "unit":
+                    unitValue = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new Unit(unitValue, idValue);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("unitid", getId());
+        Identifier.writeField(generator, "unit", unit);
+        generator.writeEndObject();
+    }
+
     public String getUnit() {
+        return Identifier.valueOf(unit);
+    }
+
+    /**
+     * @return the interned unit, ready to be written by the encoders
+     */
+    public Identifier getEncodedUnit() {
         return unit;
     }
 
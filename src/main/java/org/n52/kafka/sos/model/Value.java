@@ -16,8 +16,12 @@
  */
 package org.n52.kafka.sos.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
 
 /**
  *
@@ -39,6 +43,40 @@ public class Value {
         return new Value(idValue, val);
     }
 
+    public static Value fromJson(JsonParser parser) throws IOException {
+        int idValue = 0;
+        double val = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "observationid":
+                    idValue = parser.getValueAsInt();
+                    break;
+                case "value":
+                    val = parser.getValueAsDouble();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new Value(idValue, val);
+    }
+
+    /**
+     * Writes the columns read by {@link #fromJson(JsonParser)} as JSON object.
+     *
+     * @param generator the generator
+     * @throws IOException if writing fails
+     */
+    public void toJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("observationid", observationId);
+        generator.writeNumberField("value", value);
+        generator.writeEndObject();
+    }
+
     public int getObservationId() {
         return observationId;
     }
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.kafka.sos.codec.JsonMeasurementCodec;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Value;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class CacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndLoad() throws IOException, ObservationNotAvailableException {
+        MetadataCache cache = new MetadataCache();
+        cache.newProcedure(readJsonContents("/procedure1.json"));
+        cache.newOffering(readJsonContents("/offering1.json"));
+        cache.newFeature(readJsonContents("/feature1.json"));
+        cache.newUnit(readJsonContents("/unit1.json"));
+        cache.newSeries(readJsonContents("/series1.json"));
+        cache.newObservation(readJsonContents("/observation1.json"));
+
+        CacheSnapshot snapshot = new CacheSnapshot(folder.getRoot().toPath().resolve("cache.snapshot"));
+        TopicPartition partition = new TopicPartition("sos.public.series", 0);
+        snapshot.write(cache, Collections.singletonMap(partition, 42L));
+        snapshot.write(cache, Collections.singletonMap(partition, 43L));
+
+        MetadataCache restored = new MetadataCache();
+        Map<TopicPartition, Long> offsets = snapshot.load(restored);
+        Assert.assertThat(offsets.get(partition), CoreMatchers.is(43L));
+        Assert.assertThat(restored.getProcedures().size(), CoreMatchers.is(1));
+        Assert.assertThat(restored.getOffering(1).getName(), CoreMatchers.equalTo("Offering for sensor 1"));
+        Assert.assertThat(restored.getSeries(1).getOfferingId(), CoreMatchers.is(1));
+        Assert.assertThat(restored.getObservation(1).getResultTime(),
+                CoreMatchers.equalTo(cache.getObservation(1).getResultTime()));
+
+        Value value = Value.fromJson(readJsonContents("/value1.json"));
+        JsonMeasurementCodec codec = new JsonMeasurementCodec();
+        byte[] expected = codec.encode(MeasurementObservation.fromValue(value, cache));
+        byte[] actual = codec.encode(MeasurementObservation.fromValue(value, restored));
+        Assert.assertThat(new String(actual, StandardCharsets.UTF_8),
+                CoreMatchers.equalTo(new String(expected, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testMissingSnapshot() throws IOException {
+        CacheSnapshot snapshot = new CacheSnapshot(folder.getRoot().toPath().resolve("missing"));
+        MetadataCache cache = new MetadataCache();
+        Assert.assertThat(snapshot.load(cache).isEmpty(), CoreMatchers.is(true));
+        Assert.assertThat(cache.getSeries().isEmpty(), CoreMatchers.is(true));
+    }
+
+    private JsonNode readJsonContents(String resource) throws IOException {
+        JsonNode result = new ObjectMapper().readTree(getClass().getResourceAsStream(resource));
+        return result.path("payload").path("after");
+    }
+
+}
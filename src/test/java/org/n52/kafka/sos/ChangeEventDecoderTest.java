@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.model.Feature;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+import org.n52.kafka.sos.model.Value;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ChangeEventDecoderTest {
+
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder();
+
+    @Test
+    public void testDecodeRows() throws IOException {
+        ChangeEvent<Value> value = decoder.decode(readContents("/value1.json"), Value::fromJson);
+        Assert.assertThat(value.isSnapshot(), CoreMatchers.is(false));
+        Assert.assertThat(value.getAfter().getObservationId(), CoreMatchers.is(1));
+        Assert.assertThat(value.getAfter().getValue(), CoreMatchers.is(1.0));
+
+        String observationEvent = readContents("/observation1.json");
+        Observation obs = decoder.decode(observationEvent, Observation.parserFor(
+                decoder.readColumnTypes(observationEvent.getBytes(StandardCharsets.UTF_8)))).getAfter();
+        Assert.assertThat(obs.getSeriesId(), CoreMatchers.is(1));
+        Assert.assertThat(obs.getResultTime(), CoreMatchers.is(1353330000000000L));
+
+        Series series = decoder.decode(readContents("/series1.json"), Series::fromJson).getAfter();
+        Assert.assertThat(series.getFeatureId(), CoreMatchers.is(1));
+        Assert.assertThat(series.getOfferingId(), CoreMatchers.is(1));
+
+        Offering off = decoder.decode(readContents("/offering1.json"), Offering::fromJson).getAfter();
+        Assert.assertThat(off.getName(), CoreMatchers.equalTo("Offering for sensor 1"));
+
+        Feature feat = decoder.decode(readContents("/feature1.json"), Feature::fromJson).getAfter();
+        Assert.assertThat(feat.getIdentifier(), CoreMatchers.equalTo("http://www.52north.org/test/featureOfInterest/world"));
+
+        Unit unit = decoder.decode(readContents("/unit1.json"), Unit::fromJson).getAfter();
+        Assert.assertThat(unit.getUnit(), CoreMatchers.equalTo("test_unit_1"));
+    }
+
+    @Test
+    public void testSnapshotAndMissingRow() throws IOException {
+        ChangeEvent<Value> snapshot = decoder.decode("{\"schema\":{\"fields\":[]},\"payload\":{\"before\":null,"
+                + "\"after\":{\"observationid\":2,\"value\":3.5},\"source\":{\"snapshot\":true}}}", Value::fromJson);
+        Assert.assertThat(snapshot.isSnapshot(), CoreMatchers.is(true));
+        Assert.assertThat(snapshot.getAfter().getValue(), CoreMatchers.is(3.5));
+
+        Assert.assertThat(decoder.decode("{\"payload\":{\"before\":{\"observationid\":2},\"after\":null}}",
+                Value::fromJson), CoreMatchers.nullValue());
+        Assert.assertThat(decoder.decode("{\"schema\":{}}", Value::fromJson), CoreMatchers.nullValue());
+        Assert.assertThat(decoder.decode((byte[]) null, Value::fromJson), CoreMatchers.nullValue());
+    }
+
+    @Test
+    public void testColumnTypes() throws IOException {
+        Map<String, String> types = decoder.readColumnTypes(
+                readContents("/observation1.json").getBytes(StandardCharsets.UTF_8));
+        Assert.assertThat(types.get("resulttime"), CoreMatchers.equalTo("io.debezium.time.NanoTimestamp"));
+        Assert.assertThat(types.get("samplinggeometry"), CoreMatchers.equalTo("io.debezium.data.Json"));
+        Assert.assertThat(types.containsKey("seriesid"), CoreMatchers.is(false));
+
+        byte[] micros = ("{\"schema\":{\"fields\":[{\"field\":\"before\",\"fields\":[]},{\"field\":\"after\","
+                + "\"fields\":[{\"type\":\"int64\",\"name\":\"io.debezium.time.MicroTimestamp\","
+                + "\"field\":\"resulttime\"}]}]},\"payload\":{\"after\":{\"observationid\":1,"
+                + "\"resulttime\":1353330000123456}}}").getBytes(StandardCharsets.UTF_8);
+        Observation obs = decoder.decode(micros, Observation.parserFor(decoder.readColumnTypes(micros))).getAfter();
+        Assert.assertThat(obs.getResultTime(), CoreMatchers.is(1353330000123456L));
+        Assert.assertThat(obs.getPhenomenonTimeStart(), CoreMatchers.is(Observation.NO_TIME));
+
+        Assert.assertThat(decoder.readColumnTypes("{\"payload\":{}}".getBytes(StandardCharsets.UTF_8)).isEmpty(),
+                CoreMatchers.is(true));
+    }
+
+    private String readContents(String resource) throws IOException {
+        return Resources.toString(getClass().getResource(resource), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.kafka.common.errors.SerializationException;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Series;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ChangeEventSerdeTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ChangeEventSerde<Observation> serde = ChangeEventSerde.withSchema(Observation::parserFor,
+                Observation::toJson);
+        byte[] debezium = Resources.toByteArray(getClass().getResource("/observation1.json"));
+
+        ChangeEvent<Observation> event = serde.deserializer().deserialize("t", debezium);
+        Assert.assertThat(event.getAfter().getResultTime(), CoreMatchers.is(1353330000000000L));
+        byte[] reduced = serde.serializer().serialize("t-repartition", event);
+        Assert.assertThat(reduced.length < debezium.length, CoreMatchers.is(true));
+
+        ChangeEvent<Observation> copy = serde.deserializer().deserialize("t-repartition", reduced);
+        Assert.assertThat(copy.isSnapshot(), CoreMatchers.is(event.isSnapshot()));
+        Assert.assertThat(copy.getAfter().getId(), CoreMatchers.is(event.getAfter().getId()));
+        Assert.assertThat(copy.getAfter().getSeriesId(), CoreMatchers.is(event.getAfter().getSeriesId()));
+        Assert.assertThat(copy.getAfter().getResultTime(), CoreMatchers.equalTo(event.getAfter().getResultTime()));
+        Assert.assertThat(copy.getAfter().getPhenomenonTimeStart(),
+                CoreMatchers.equalTo(event.getAfter().getPhenomenonTimeStart()));
+    }
+
+    @Test
+    public void testParserFollowsSchemaChanges() throws IOException {
+        ChangeEventSerde<Observation> serde = ChangeEventSerde.withSchema(Observation::parserFor,
+                Observation::toJson);
+
+        ChangeEvent<Observation> micros = serde.deserializer().deserialize("t",
+                observationEvent("io.debezium.time.MicroTimestamp", "1353330000123456"));
+        Assert.assertThat(micros.getAfter().getResultTime(), CoreMatchers.is(1353330000123456L));
+
+        ChangeEvent<Observation> millis = serde.deserializer().deserialize("t",
+                observationEvent("io.debezium.time.Timestamp", "1353330000123"));
+        Assert.assertThat(millis.getAfter().getResultTime(), CoreMatchers.is(1353330000123000L));
+    }
+
+    @Test
+    public void testSchemaIsResolvedOnceEventsDeclareIt() throws IOException {
+        ChangeEventSerde<Observation> serde = ChangeEventSerde.withSchema(Observation::parserFor,
+                Observation::toJson);
+        byte[] reduced = serde.serializer().serialize("t", serde.deserializer().deserialize("t",
+                observationEvent("io.debezium.time.MicroTimestamp", "1353330000123456")));
+
+        ChangeEvent<Observation> schemaless = serde.deserializer().deserialize("u", reduced);
+        Assert.assertThat(schemaless.getAfter().getResultTime(), CoreMatchers.is(1353330000123456L));
+
+        ChangeEvent<Observation> millis = serde.deserializer().deserialize("u",
+                observationEvent("io.debezium.time.Timestamp", "1353330000123"));
+        Assert.assertThat(millis.getAfter().getResultTime(), CoreMatchers.is(1353330000123000L));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testUnknownTimestampTypeIsRejected() {
+        ChangeEventSerde<Observation> serde = ChangeEventSerde.withSchema(Observation::parserFor,
+                Observation::toJson);
+
+        serde.deserializer().deserialize("t",
+                observationEvent("io.debezium.time.ZonedTimestamp", "\"2012-11-19T13:00:00Z\""));
+    }
+
+    private static byte[] observationEvent(String timestampType, String resultTime) {
+        return ("{\"schema\":{\"fields\":[{\"field\":\"after\",\"fields\":[{\"type\":\"int64\","
+                + "\"name\":\"" + timestampType + "\",\"field\":\"resulttime\"}]}]},"
+                + "\"payload\":{\"after\":{\"observationid\":1,\"seriesid\":1,\"resulttime\":" + resultTime
+                + "}}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSeriesRoundTrip() throws IOException {
+        ChangeEventSerde<Series> serde = new ChangeEventSerde<>(Series::fromJson, Series::toJson);
+        ChangeEvent<Series> event = serde.deserializer().deserialize("t",
+                Resources.toByteArray(getClass().getResource("/series1.json")));
+
+        Series copy = serde.deserializer().deserialize("t", serde.serializer().serialize("t", event)).getAfter();
+        Assert.assertThat(copy.getId(), CoreMatchers.is(event.getAfter().getId()));
+        Assert.assertThat(copy.getOfferingId(), CoreMatchers.is(event.getAfter().getOfferingId()));
+        Assert.assertThat(copy.getUnitId(), CoreMatchers.is(event.getAfter().getUnitId()));
+        Assert.assertThat(copy.getProcedureId(), CoreMatchers.is(event.getAfter().getProcedureId()));
+        Assert.assertThat(serde.deserializer().deserialize("t", null), CoreMatchers.nullValue());
+    }
+
+}
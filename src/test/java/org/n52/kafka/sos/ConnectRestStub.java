@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal stand-in for the Kafka Connect REST API, so that the consumer can
+ * be started without a Connect cluster. It answers the readiness probe,
+ * unless configured to be unavailable for a number of probes, and stores the
+ * configuration of the connector put to
+ * <code>/connectors/sos-connector/config</code>.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ConnectRestStub implements AutoCloseable {
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_CREATED = 201;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_UNAVAILABLE = 503;
+    private static final String CONFIG_PATH = "/connectors/sos-connector/config";
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger unavailable = new AtomicInteger();
+    private final AtomicInteger conflicting = new AtomicInteger();
+    private final AtomicInteger configUpdates = new AtomicInteger();
+    private volatile String config;
+
+    public ConnectRestStub() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if ("/".equals(path)) {
+            if (unavailable.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                respond(exchange, HTTP_UNAVAILABLE, "{}");
+            }
+            else {
+                respond(exchange, HTTP_OK, "{\"version\":\"stub\"}");
+            }
+        }
+        else if (CONFIG_PATH.equals(path) && conflicting.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            respond(exchange, HTTP_CONFLICT, "{\"error_code\":409}");
+        }
+        else if (CONFIG_PATH.equals(path) && "PUT".equals(method)) {
+            boolean created = config == null;
+            config = read(exchange.getRequestBody());
+            configUpdates.incrementAndGet();
+            respond(exchange, created ? HTTP_CREATED : HTTP_OK, "{\"name\":\"sos-connector\"}");
+        }
+        else if (CONFIG_PATH.equals(path) && config != null) {
+            respond(exchange, HTTP_OK, config);
+        }
+        else {
+            respond(exchange, HTTP_NOT_FOUND, "{}");
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String content) throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return the base URL to pass as <code>kafkaConnectRestBaseUrl</code>
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param probes the number of readiness probes to answer with 503
+     */
+    public void setUnavailable(int probes) {
+        unavailable.set(probes);
+    }
+
+    /**
+     * @param requests the number of connector configuration requests to answer with 409, as during a rebalance
+     */
+    public void setConflicting(int requests) {
+        conflicting.set(requests);
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of times the connector configuration has been put
+     */
+    public int getConfigUpdates() {
+        return configUpdates.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
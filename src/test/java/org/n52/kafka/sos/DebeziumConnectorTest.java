@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.Properties;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class DebeziumConnectorTest {
+
+    @Test
+    public void testRegistrationIsIdempotent() throws IOException {
+        try (ConnectRestStub connect = new ConnectRestStub()) {
+            Properties props = new Properties();
+            props.setProperty("connect.initialBackoffMs", "10");
+            connect.setUnavailable(2);
+
+            new DebeziumConnector(connect.getBaseUrl(), new Settings(props)).initialize();
+            Assert.assertThat(connect.getConfigUpdates(), CoreMatchers.is(1));
+
+            new DebeziumConnector(connect.getBaseUrl(), new Settings(props)).initialize();
+            Assert.assertThat(connect.getConfigUpdates(), CoreMatchers.is(1));
+
+            props.setProperty("snapshot.mode", "initial");
+            new DebeziumConnector(connect.getBaseUrl(), new Settings(props)).initialize();
+            Assert.assertThat(connect.getConfigUpdates(), CoreMatchers.is(2));
+        }
+    }
+
+    @Test
+    public void testRegistrationIsRetriedDuringRebalance() throws IOException {
+        try (ConnectRestStub connect = new ConnectRestStub()) {
+            Properties props = new Properties();
+            props.setProperty("connect.initialBackoffMs", "10");
+            connect.setConflicting(3);
+
+            new DebeziumConnector(connect.getBaseUrl(), new Settings(props)).initialize();
+            Assert.assertThat(connect.getConfigUpdates(), CoreMatchers.is(1));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadinessTimeout() throws IOException {
+        try (ConnectRestStub connect = new ConnectRestStub()) {
+            Properties props = new Properties();
+            props.setProperty("connect.initialBackoffMs", "10");
+            props.setProperty("connect.readinessTimeoutSeconds", "0");
+            connect.setUnavailable(Integer.MAX_VALUE);
+
+            new DebeziumConnector(connect.getBaseUrl(), new Settings(props)).initialize();
+        }
+    }
+
+}
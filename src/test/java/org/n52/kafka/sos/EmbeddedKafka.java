@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Single Kafka broker and ZooKeeper server running in the test JVM on free
+ * local ports. All data is written to a temporary directory that is
+ * removed on {@link #close()}.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class EmbeddedKafka implements AutoCloseable {
+
+    private static final int ZOOKEEPER_TICK_TIME = 500;
+    private static final int ZOOKEEPER_MAX_CONNECTIONS = 60;
+
+    private final Path dataDir;
+    private final ServerCnxnFactory zookeeper;
+    private final KafkaServerStartable broker;
+    private final String bootstrapServers;
+
+    public EmbeddedKafka() throws IOException, InterruptedException {
+        this(new Properties());
+    }
+
+    /**
+     * @param overrides broker configuration overriding the defaults
+     * @throws IOException if the data directory or the ZooKeeper server could not be created
+     * @throws InterruptedException if interrupted while starting ZooKeeper
+     */
+    public EmbeddedKafka(Properties overrides) throws IOException, InterruptedException {
+        this.dataDir = Files.createTempDirectory("embedded-kafka");
+
+        File snapshots = dataDir.resolve("zookeeper-snapshots").toFile();
+        File logs = dataDir.resolve("zookeeper-logs").toFile();
+        this.zookeeper = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0),
+                ZOOKEEPER_MAX_CONNECTIONS);
+        this.zookeeper.startup(new ZooKeeperServer(snapshots, logs, ZOOKEEPER_TICK_TIME));
+
+        int port = freePort();
+        this.bootstrapServers = "127.0.0.1:" + port;
+
+        Properties props = new Properties();
+        props.put("broker.id", "0");
+        props.put("zookeeper.connect", "127.0.0.1:" + zookeeper.getLocalPort());
+        props.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        props.put("log.dirs", dataDir.resolve("kafka-logs").toString());
+        props.put("auto.create.topics.enable", "false");
+        props.put("offsets.topic.replication.factor", "1");
+        props.put("offsets.topic.num.partitions", "1");
+        props.put("transaction.state.log.replication.factor", "1");
+        props.put("transaction.state.log.min.isr", "1");
+        props.put("group.initial.rebalance.delay.ms", "0");
+        props.putAll(overrides);
+
+        this.broker = new KafkaServerStartable(KafkaConfig.fromProps(props));
+        this.broker.startup();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public String getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        broker.shutdown();
+        broker.awaitShutdown();
+        zookeeper.shutdown();
+
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+}
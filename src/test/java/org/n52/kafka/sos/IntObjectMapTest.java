@@ -0,0 +1,126 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class IntObjectMapTest {
+
+    @Test
+    public void testAgainstHashMap() {
+        IntObjectMap<String> map = new IntObjectMap<>(4);
+        Map<Integer, String> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(5000) - 100;
+            if (random.nextInt(3) == 0) {
+                Assert.assertThat(map.remove(key), CoreMatchers.equalTo(reference.remove(key)));
+            }
+            else {
+                String value = Integer.toString(i);
+                Assert.assertThat(map.put(key, value), CoreMatchers.equalTo(reference.put(key, value)));
+            }
+        }
+
+        Assert.assertThat(map.size(), CoreMatchers.is(reference.size()));
+        for (int key = -100; key < 4900; key++) {
+            Assert.assertThat(map.get(key), CoreMatchers.equalTo(reference.get(key)));
+            Assert.assertThat(map.containsKey(key), CoreMatchers.is(reference.containsKey(key)));
+        }
+        Assert.assertThat(map.asMap(), CoreMatchers.equalTo(reference));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(4);
+        for (int key = 0; key < 1000; key++) {
+            map.put(key, "stable");
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger failures = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                for (int key = 0; key < 1000; key++) {
+                    if (!"stable".equals(map.get(key))) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        /*
+         * keep rehashing and shifting entries while the reader is active
+         */
+        for (int round = 0; round < 20; round++) {
+            for (int key = 1000; key < 20000; key++) {
+                map.put(key, "volatile");
+            }
+            for (int key = 1000; key < 20000; key++) {
+                map.remove(key);
+            }
+        }
+        running.set(false);
+        reader.join();
+
+        Assert.assertThat(failures.get(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void testMapView() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(0, "zero");
+        map.put(1, "one");
+
+        Map<Integer, String> view = map.asMap();
+        Assert.assertThat(view.get(0), CoreMatchers.equalTo("zero"));
+        Assert.assertThat(view.get("1"), CoreMatchers.nullValue());
+        Assert.assertThat(view.size(), CoreMatchers.is(2));
+
+        map.remove(0);
+        Assert.assertThat(view.containsKey(0), CoreMatchers.is(false));
+        Assert.assertThat(view.keySet(), CoreMatchers.hasItem(1));
+    }
+
+    @Test
+    public void testConcurrentValuesAreCopied() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>();
+        map.put(0, "zero");
+        map.put(1, "one");
+
+        Collection<String> values = map.asMap().values();
+        map.put(2, "two");
+        Assert.assertThat(values.size(), CoreMatchers.is(2));
+        Assert.assertThat(values, CoreMatchers.hasItems("zero", "one"));
+        Assert.assertThat(map.asMap().values().size(), CoreMatchers.is(3));
+    }
+
+}
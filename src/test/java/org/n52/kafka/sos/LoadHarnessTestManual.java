@@ -0,0 +1,367 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.junit.Test;
+import org.n52.kafka.sos.model.Feature;
+import org.n52.kafka.sos.model.ObservableProperty;
+import org.n52.kafka.sos.model.Observation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+import org.n52.kafka.sos.model.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * End-to-end throughput harness: runs the {@link KafkaSosConsumer} against
+ * an embedded broker, feeds it synthetic change events at a fixed rate and
+ * reads the offering topics to measure the sustained throughput and the
+ * latency from publishing a value to receiving its measurement. Every value
+ * carries its publication time in milliseconds, so the measurements have
+ * to be encoded with the json codec.
+ * <p>
+ * The load is configured with system properties:
+ * <ul>
+ * <li><code>harness.offerings</code>, <code>harness.series</code>: the size of the generated metadata</li>
+ * <li><code>harness.valuesPerSecond</code>, <code>harness.durationSeconds</code>: the load</li>
+ * <li><code>harness.partitions</code>: the partitions of the change topics</li>
+ * <li><code>harness.settings.*</code>: settings of the consumer, e.g.
+ * <code>-Dharness.settings.enrichment.threads=4</code></li>
+ * </ul>
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class LoadHarnessTestManual {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadHarnessTestManual.class.getName());
+
+    private static final String SETTINGS_PREFIX = "harness.settings.";
+    private static final long WARM_UP_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final int offerings = Integer.getInteger("harness.offerings", 4);
+    private final int series = Integer.getInteger("harness.series", 100);
+    private final int valuesPerSecond = Integer.getInteger("harness.valuesPerSecond", 5000);
+    private final int durationSeconds = Integer.getInteger("harness.durationSeconds", 60);
+    private final int partitions = Integer.getInteger("harness.partitions", 1);
+
+    private final SyntheticChangeEvents events;
+    private int nextObservationId = 1;
+
+    public LoadHarnessTestManual() throws IOException {
+        this.events = new SyntheticChangeEvents();
+    }
+
+    @Test
+    public void sustainedThroughput() throws Exception {
+        try (EmbeddedKafka kafka = new EmbeddedKafka(); ConnectRestStub connect = new ConnectRestStub()) {
+            createChangeTopics(kafka.getBootstrapServers());
+
+            KafkaSosConsumer cons = new KafkaSosConsumer(0, "sos-harness", kafka.getBootstrapServers(),
+                    connect.getBaseUrl(), consumerSettings());
+            Thread consumerThread = new Thread(cons, "sos-consumer");
+            consumerThread.start();
+
+            MeasurementReader reader = new MeasurementReader(kafka.getBootstrapServers());
+            Thread readerThread = new Thread(reader, "harness-reader");
+            readerThread.start();
+
+            try (Producer<byte[], byte[]> producer = createProducer(kafka.getBootstrapServers())) {
+                publishMetadata(producer);
+                warmUp(producer, reader);
+
+                LOG.info("Publishing {} values per second for {} seconds", valuesPerSecond, durationSeconds);
+                long start = System.currentTimeMillis();
+                reader.reset(start);
+                long sent = publishValues(producer);
+                LOG.info("Published {} values/s", String.format("%.1f",
+                        sent * 1000d / (System.currentTimeMillis() - start)));
+                long end = System.currentTimeMillis() + DRAIN_TIMEOUT;
+                while (reader.getReceived() < sent && System.currentTimeMillis() < end) {
+                    Thread.sleep(100);
+                }
+
+                report(sent, reader);
+                LOG.info("Pipeline metrics:\n{}", cons.getMetrics().toText());
+                assertThat(reader.getReceived(), not(is(0L)));
+            } finally {
+                cons.shutdown();
+                consumerThread.join();
+                reader.shutdown();
+                readerThread.join();
+            }
+        }
+    }
+
+    private Properties consumerSettings() throws IOException {
+        Properties settings = new Properties();
+        settings.load(getClass().getResourceAsStream("/settings.properties"));
+        settings.setProperty("consumer.autoOffsetReset", "earliest");
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(SETTINGS_PREFIX))
+                .forEach(name -> settings.setProperty(name.substring(SETTINGS_PREFIX.length()),
+                        System.getProperty(name)));
+        return settings;
+    }
+
+    private void createChangeTopics(String bootstrapServers) throws Exception {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", bootstrapServers);
+        try (AdminClient admin = AdminClient.create(props)) {
+            List<NewTopic> topics = Arrays.asList(KafkaSosConsumer.OBSERVATION_TABLE,
+                    KafkaSosConsumer.SERIES_TABLE,
+                    KafkaSosConsumer.PROCEDURE_TABLE,
+                    KafkaSosConsumer.OFFERING_TABLE,
+                    KafkaSosConsumer.OBSERVABLEPROPERTY_TABLE,
+                    KafkaSosConsumer.UNIT_TABLE,
+                    KafkaSosConsumer.FEATUREOFINTEREST_TABLE,
+                    KafkaSosConsumer.NUMERICVALUE_TABLE).stream()
+                    .map(table -> new NewTopic(SyntheticChangeEvents.topic(table), partitions, (short) 1))
+                    .collect(Collectors.toList());
+            admin.createTopics(topics).all().get();
+        }
+    }
+
+    private static Producer<byte[], byte[]> createProducer(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", bootstrapServers);
+        props.put("acks", "1");
+        props.put("linger.ms", 5);
+        props.put("key.serializer", ByteArraySerializer.class.getName());
+        props.put("value.serializer", ByteArraySerializer.class.getName());
+        return new KafkaProducer<>(props);
+    }
+
+    private void publishMetadata(Producer<byte[], byte[]> producer) {
+        for (int o = 1; o <= offerings; o++) {
+            send(producer, KafkaSosConsumer.OFFERING_TABLE, "offeringid", o,
+                    new Offering("http://www.52north.org/harness/offering/" + o, "offering " + o, o),
+                    Offering::toJson);
+        }
+        for (int s = 1; s <= series; s++) {
+            send(producer, KafkaSosConsumer.PROCEDURE_TABLE, "procedureid", s,
+                    new Procedure("http://www.52north.org/harness/procedure/" + s, s), Procedure::toJson);
+            send(producer, KafkaSosConsumer.FEATUREOFINTEREST_TABLE, "featureofinterestid", s,
+                    new Feature("http://www.52north.org/harness/feature/" + s, "feature " + s, 1, s),
+                    Feature::toJson);
+            send(producer, KafkaSosConsumer.OBSERVABLEPROPERTY_TABLE, "observablepropertyid", s,
+                    new ObservableProperty("http://www.52north.org/harness/property/" + s, "property " + s, s),
+                    ObservableProperty::toJson);
+            send(producer, KafkaSosConsumer.UNIT_TABLE, "unitid", s, new Unit("m", s), Unit::toJson);
+            send(producer, KafkaSosConsumer.SERIES_TABLE, "seriesid", s,
+                    new Series(s, s, s, 1 + (s - 1) % offerings, s, s), Series::toJson);
+        }
+        producer.flush();
+        LOG.info("Published the metadata of {} offerings and {} series", offerings, series);
+    }
+
+    /**
+     * Publishes one value per series until the measurements of all series
+     * arrive, i.e. until all offering topics have been created and are read.
+     */
+    private void warmUp(Producer<byte[], byte[]> producer, MeasurementReader reader) throws InterruptedException {
+        long end = System.currentTimeMillis() + WARM_UP_TIMEOUT;
+        while (reader.getReceived() < series) {
+            if (System.currentTimeMillis() > end) {
+                throw new IllegalStateException("No measurements received within the warm-up phase");
+            }
+            reader.reset(System.currentTimeMillis());
+            for (int s = 1; s <= series; s++) {
+                publishValue(producer, s);
+            }
+            producer.flush();
+            Thread.sleep(1000);
+        }
+        LOG.info("Warm-up finished");
+    }
+
+    private long publishValues(Producer<byte[], byte[]> producer) {
+        RateLimiter limiter = RateLimiter.create(valuesPerSecond);
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+        long sent = 0;
+        while (System.currentTimeMillis() < end) {
+            limiter.acquire();
+            publishValue(producer, (int) (sent % series) + 1);
+            sent++;
+        }
+        producer.flush();
+        return sent;
+    }
+
+    private void publishValue(Producer<byte[], byte[]> producer, int seriesId) {
+        int observationId = nextObservationId++;
+        long now = System.currentTimeMillis();
+        long time = now * 1000;
+        send(producer, KafkaSosConsumer.OBSERVATION_TABLE, "observationid", observationId,
+                new Observation(seriesId, time, time, time, observationId),
+                Observation::toJson);
+        send(producer, KafkaSosConsumer.NUMERICVALUE_TABLE, "observationid", observationId,
+                new Value(observationId, now), Value::toJson);
+    }
+
+    private <T> void send(Producer<byte[], byte[]> producer, String table, String keyColumn, int id, T row,
+            ChangeEventSerde.RowWriter<T> writer) {
+        producer.send(new ProducerRecord<>(SyntheticChangeEvents.topic(table),
+                events.key(keyColumn, id), events.insert(table, row, writer)));
+    }
+
+    private void report(long sent, MeasurementReader reader) {
+        long[] latencies = reader.getLatencies();
+        Arrays.sort(latencies);
+        double seconds = Math.max(1, reader.getLastReceived() - reader.getFirstReceived()) / 1000d;
+        LOG.info("Sent {} values, received {} measurements ({} missing)", sent, reader.getReceived(),
+                sent - reader.getReceived());
+        LOG.info("Sustained throughput: {} measurements/s", String.format("%.1f", latencies.length / seconds));
+        LOG.info("Latency ms: p50={} p99={} p999={} max={}",
+                percentile(latencies, 0.5),
+                percentile(latencies, 0.99),
+                percentile(latencies, 0.999),
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    /**
+     * Reads the measurements of all offering topics and records their
+     * latency from the publication time carried in the value.
+     */
+    private static class MeasurementReader implements Runnable {
+
+        private final KafkaConsumer<Integer, byte[]> consumer;
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final AtomicLong received = new AtomicLong();
+        private long[] latencies = new long[1 << 16];
+        private int count;
+        private long since;
+        private long firstReceived;
+        private long lastReceived;
+
+        MeasurementReader(String bootstrapServers) {
+            Properties props = new Properties();
+            props.put("bootstrap.servers", bootstrapServers);
+            props.put("group.id", "harness-reader");
+            props.put("auto.offset.reset", "earliest");
+            props.put("metadata.max.age.ms", "1000");
+            this.consumer = new KafkaConsumer<>(props, new IntegerDeserializer(), new ByteArrayDeserializer());
+        }
+
+        @Override
+        public void run() {
+            consumer.subscribe(Pattern.compile("sos\\.offerings\\..*"), new NoOpConsumerRebalanceListener());
+            try {
+                while (true) {
+                    for (ConsumerRecord<Integer, byte[]> record : consumer.poll(100)) {
+                        long now = System.currentTimeMillis();
+                        try {
+                            record(now, mapper.readTree(record.value()).get("value").asLong());
+                        } catch (IOException e) {
+                            LOG.warn("Could not read measurement: {}", e.getMessage());
+                        }
+                    }
+                }
+            } catch (WakeupException e) {
+                /*
+                 * ignore for shutdown
+                 */
+            } finally {
+                consumer.close();
+            }
+        }
+
+        private synchronized void record(long now, long published) {
+            if (published < since) {
+                /*
+                 * published before the last reset
+                 */
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = now - published;
+            if (count == 1) {
+                firstReceived = now;
+            }
+            lastReceived = now;
+            received.incrementAndGet();
+        }
+
+        /**
+         * @param since the earliest publication time of the values to take into account from now on
+         */
+        synchronized void reset(long since) {
+            this.since = since;
+            count = 0;
+            received.set(0);
+        }
+
+        long getReceived() {
+            return received.get();
+        }
+
+        synchronized long[] getLatencies() {
+            return Arrays.copyOf(latencies, count);
+        }
+
+        synchronized long getFirstReceived() {
+            return firstReceived;
+        }
+
+        synchronized long getLastReceived() {
+            return lastReceived;
+        }
+
+        void shutdown() {
+            consumer.wakeup();
+        }
+
+    }
+
+}
@@ -20,16 +20,19 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.n52.kafka.sos.codec.JsonMeasurementCodec;
 import org.n52.kafka.sos.model.Feature;
 import org.n52.kafka.sos.model.MeasurementObservation;
 import org.n52.kafka.sos.model.Observation;
 import org.n52.kafka.sos.model.Offering;
 import org.n52.kafka.sos.model.Procedure;
 import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.TimePrecision;
 import org.n52.kafka.sos.model.Unit;
 import org.n52.kafka.sos.model.Value;
 import org.slf4j.Logger;
@@ -52,7 +55,7 @@ public class MetadataCacheTest {
         cache.newFeature(readJsonContents("/feature1.json"));
         cache.newUnit(readJsonContents("/unit1.json"));
         cache.newSeries(readJsonContents("/series1.json"));
-        cache.newObservation(readJsonContents("/observation1.json"));
+        cache.newObservation(Observation.fromJson(readJsonContents("/observation1.json"), TimePrecision.NANOS));
 
         Procedure proc = cache.getProcedures().get(1);
         Assert.assertThat(proc.getIdentifier(), CoreMatchers.equalTo("http://www.52north.org/test/procedure/1"));
@@ -70,7 +73,7 @@ public class MetadataCacheTest {
         Assert.assertThat(ser.getFeatureId(), CoreMatchers.is(1));
 
         Observation obs = cache.getObservations().get(1);
-        Assert.assertTrue(obs.getResultTime().equals(new Date(1353330000000L)));
+        Assert.assertThat(obs.getResultTime(), CoreMatchers.is(1353330000000000L));
 
         Value value = Value.fromJson(readJsonContents("/value1.json"));
 
@@ -78,6 +81,16 @@ public class MetadataCacheTest {
 
         String jsonMo = new ObjectMapper().setSerializationInclusion(Include.NON_NULL).writeValueAsString(mo);
         LOG.info(jsonMo);
+
+        /*
+         * the databinding writes the times as they are held, in microseconds
+         */
+        Properties props = new Properties();
+        props.setProperty("codec.timeFormat", "micros");
+        JsonMeasurementCodec codec = new JsonMeasurementCodec();
+        codec.configure(new Settings(props));
+        String encodedMo = new String(codec.encode(mo), StandardCharsets.UTF_8);
+        Assert.assertThat(encodedMo, CoreMatchers.equalTo(jsonMo));
     }
 
     private JsonNode readJsonContents(String procedure1json) throws IOException {
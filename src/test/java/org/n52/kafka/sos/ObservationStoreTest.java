@@ -0,0 +1,107 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.model.Observation;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class ObservationStoreTest {
+
+    @Test
+    public void testMaxEntries() {
+        ObservationStore store = new ObservationStore(3, 0, TimeUnit.SECONDS, false);
+        for (int i = 1; i <= 5; i++) {
+            store.put(observation(i), 0);
+        }
+
+        Assert.assertThat(store.size(), CoreMatchers.is(3));
+        Assert.assertThat(store.get(1), CoreMatchers.nullValue());
+        Assert.assertThat(store.get(2), CoreMatchers.nullValue());
+        Assert.assertThat(store.get(5).getId(), CoreMatchers.is(5));
+        Assert.assertThat(store.getEvictions(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void testMaxAge() {
+        ObservationStore store = new ObservationStore(0, 10, TimeUnit.SECONDS, false);
+        store.put(observation(1), 0);
+        store.put(observation(2), 5000);
+        store.put(observation(3), 12000);
+
+        Assert.assertThat(store.contains(1), CoreMatchers.is(false));
+        Assert.assertThat(store.contains(2), CoreMatchers.is(true));
+
+        store.expire(20000);
+        Assert.assertThat(store.contains(2), CoreMatchers.is(false));
+        Assert.assertThat(store.contains(3), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testEvictOnEmit() {
+        ObservationStore store = new ObservationStore(2, 0, TimeUnit.SECONDS, true);
+        store.put(observation(1), 0);
+        store.put(observation(2), 0);
+        store.emitted(1);
+        store.put(observation(3), 0);
+
+        Assert.assertThat(store.size(), CoreMatchers.is(2));
+        Assert.assertThat(store.contains(2), CoreMatchers.is(true));
+        Assert.assertThat(store.contains(3), CoreMatchers.is(true));
+        Assert.assertThat(store.getEvictions(), CoreMatchers.is(1L));
+    }
+
+    @Test
+    public void testReinsertAfterEmit() {
+        ObservationStore store = new ObservationStore(2, 0, TimeUnit.SECONDS, true);
+        store.put(observation(1), 0);
+        store.put(observation(2), 0);
+        store.emitted(1);
+        store.put(observation(1), 0);
+        store.put(observation(3), 0);
+
+        /*
+         * the slot of the emitted observation must neither count against
+         * maxEntries nor evict the re-inserted row
+         */
+        Assert.assertThat(store.size(), CoreMatchers.is(2));
+        Assert.assertThat(store.contains(1), CoreMatchers.is(true));
+        Assert.assertThat(store.contains(2), CoreMatchers.is(false));
+        Assert.assertThat(store.contains(3), CoreMatchers.is(true));
+
+        for (int i = 4; i < 100; i++) {
+            store.put(observation(i), 0);
+            store.emitted(i);
+        }
+        store.put(observation(100), 0);
+        Assert.assertThat(store.contains(1), CoreMatchers.is(false));
+        Assert.assertThat(store.contains(3), CoreMatchers.is(true));
+        Assert.assertThat(store.contains(100), CoreMatchers.is(true));
+    }
+
+    private Observation observation(int id) {
+        long now = System.currentTimeMillis() * 1000;
+        return new Observation(1, now, now, now, id);
+    }
+
+}
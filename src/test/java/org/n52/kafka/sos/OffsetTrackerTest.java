@@ -0,0 +1,79 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class OffsetTrackerTest {
+
+    private final TopicPartition partition = new TopicPartition("sos.public.numericvalue", 0);
+
+    @Test
+    public void testOutOfOrderCompletion() {
+        OffsetTracker tracker = new OffsetTracker();
+        OffsetTracker.Completion first = tracker.begin(partition, 10);
+        OffsetTracker.Completion second = tracker.begin(partition, 11);
+        OffsetTracker.Completion third = tracker.begin(partition, 15);
+        Assert.assertThat(tracker.getCommittable().get(partition).offset(), CoreMatchers.is(10L));
+
+        third.complete();
+        second.complete();
+        Assert.assertThat(tracker.getCommittable().get(partition).offset(), CoreMatchers.is(10L));
+        Assert.assertThat(tracker.getPending(), CoreMatchers.is(3));
+
+        first.complete();
+        Map<TopicPartition, OffsetAndMetadata> committable = tracker.getCommittable();
+        Assert.assertThat(committable.get(partition).offset(), CoreMatchers.is(16L));
+        Assert.assertThat(tracker.getPending(), CoreMatchers.is(0));
+
+        tracker.committed(committable);
+        Assert.assertThat(tracker.getCommittable().isEmpty(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        OffsetTracker tracker = new OffsetTracker();
+        List<OffsetTracker.Completion> completions = new ArrayList<>();
+        for (long offset = 0; offset < 1000; offset++) {
+            completions.add(tracker.begin(partition, offset));
+        }
+        for (int i = 999; i > 0; i--) {
+            completions.get(i).complete();
+        }
+        Assert.assertThat(tracker.getCommittable().get(partition).offset(), CoreMatchers.is(0L));
+        completions.get(0).complete();
+        Assert.assertThat(tracker.getCommittable().get(partition).offset(), CoreMatchers.is(1000L));
+
+        tracker.begin(partition, 1000);
+        tracker.remove(Collections.singleton(partition));
+        Assert.assertThat(tracker.getCommittable().isEmpty(), CoreMatchers.is(true));
+        Assert.assertThat(tracker.getPending(), CoreMatchers.is(0));
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.ObservationNotAvailableException.MissingEntity;
+import org.n52.kafka.sos.model.Value;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class PendingValueBufferTest {
+
+    @Test
+    public void testReleaseAndExpire() {
+        PendingValueBuffer buffer = new PendingValueBuffer(10, 1, TimeUnit.SECONDS);
+
+        Assert.assertTrue(buffer.add(new Value(1, 1.0), missing(MissingEntity.OBSERVATION, 1), id -> false, 0));
+        Assert.assertTrue(buffer.add(new Value(2, 2.0), missing(MissingEntity.SERIES, 7), id -> false, 0));
+        Assert.assertTrue(buffer.add(new Value(3, 3.0), missing(MissingEntity.SERIES, 7), id -> false, 500));
+        Assert.assertTrue(buffer.add(new Value(4, 4.0), missing(MissingEntity.OBSERVATION, 4), id -> false, 900));
+        Assert.assertThat(buffer.size(), CoreMatchers.is(4));
+
+        Assert.assertThat(buffer.observationAvailable(1).get(0).getObservationId(), CoreMatchers.is(1));
+        Assert.assertThat(buffer.observationAvailable(1).isEmpty(), CoreMatchers.is(true));
+
+        Assert.assertThat(buffer.expire(1200).get(0).getObservationId(), CoreMatchers.is(2));
+        Assert.assertThat(buffer.seriesAvailable(7).get(0).getObservationId(), CoreMatchers.is(3));
+        Assert.assertThat(buffer.size(), CoreMatchers.is(1));
+
+        Assert.assertThat(buffer.expire(2000).get(0).getObservationId(), CoreMatchers.is(4));
+        Assert.assertThat(buffer.size(), CoreMatchers.is(0));
+        Assert.assertThat(buffer.getExpired(), CoreMatchers.is(2L));
+        Assert.assertThat(buffer.getReleased(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void testAlreadyAvailableAndCapacity() {
+        PendingValueBuffer buffer = new PendingValueBuffer(1, 1, TimeUnit.SECONDS);
+
+        Assert.assertFalse(buffer.add(new Value(1, 1.0), missing(MissingEntity.OBSERVATION, 1), id -> true, 0));
+        Assert.assertThat(buffer.size(), CoreMatchers.is(0));
+
+        buffer.add(new Value(1, 1.0), missing(MissingEntity.OBSERVATION, 1), id -> false, 0);
+        buffer.add(new Value(2, 2.0), missing(MissingEntity.OBSERVATION, 2), id -> false, 0);
+        Assert.assertThat(buffer.size(), CoreMatchers.is(1));
+        Assert.assertThat(buffer.getOverflowed(), CoreMatchers.is(1L));
+        Assert.assertThat(buffer.observationAvailable(1).isEmpty(), CoreMatchers.is(true));
+        Assert.assertThat(buffer.observationAvailable(2).size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void testOfferingAvailable() {
+        PendingValueBuffer buffer = new PendingValueBuffer(10, 1, TimeUnit.SECONDS);
+
+        Assert.assertTrue(buffer.add(new Value(1, 1.0), missing(MissingEntity.OFFERING, 3), id -> false, 0));
+        Assert.assertTrue(buffer.add(new Value(2, 2.0), missing(MissingEntity.OFFERING, 3), id -> false, 0));
+        Assert.assertThat(buffer.seriesAvailable(3).isEmpty(), CoreMatchers.is(true));
+        Assert.assertThat(buffer.offeringAvailable(3).size(), CoreMatchers.is(2));
+        Assert.assertThat(buffer.size(), CoreMatchers.is(0));
+    }
+
+    private ObservationNotAvailableException missing(MissingEntity entity, int id) {
+        return new ObservationNotAvailableException("missing", entity, id);
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.codec.JsonMeasurementCodec;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Series;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class RetryingSenderTest {
+
+    private final TopicPartition partition = new TopicPartition("sos.public.numericvalue", 0);
+
+    @Test
+    public void testFailedSendIsRetried() throws IOException, InterruptedException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        AtomicInteger givenUp = new AtomicInteger();
+        OffsetTracker offsets = new OffsetTracker();
+        try (RetryingSender sender = new RetryingSender(settings(3), givenUp::incrementAndGet,
+                new PipelineMetrics())) {
+            sender.send(createProducer(mock), measurement(), offsets.begin(partition, 5), null);
+            mock.errorNext(new RuntimeException("timeout"));
+            awaitSends(mock, 2);
+            mock.completeNext();
+        }
+
+        Assert.assertThat(offsets.getCommittable().get(partition).offset(), CoreMatchers.is(6L));
+        Assert.assertThat(givenUp.get(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void testGiveUpKeepsRecordPending() throws IOException, InterruptedException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        AtomicInteger givenUp = new AtomicInteger();
+        OffsetTracker offsets = new OffsetTracker();
+        try (RetryingSender sender = new RetryingSender(settings(2), givenUp::incrementAndGet,
+                new PipelineMetrics())) {
+            sender.send(createProducer(mock), measurement(), offsets.begin(partition, 5), null);
+            mock.errorNext(new RuntimeException("timeout"));
+            awaitSends(mock, 2);
+            mock.errorNext(new RuntimeException("timeout"));
+        }
+
+        Assert.assertThat(givenUp.get(), CoreMatchers.is(1));
+        Assert.assertThat(offsets.getPending(), CoreMatchers.is(1));
+        Assert.assertThat(offsets.getCommittable().get(partition).offset(), CoreMatchers.is(5L));
+    }
+
+    @Test
+    public void testSeriesStaysOrderedWhileRetrying() throws IOException, InterruptedException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        AtomicInteger givenUp = new AtomicInteger();
+        OffsetTracker offsets = new OffsetTracker();
+        MeasurementObservation first = measurement(1.0);
+        MeasurementObservation second = measurement(2.0);
+        try (RetryingSender sender = new RetryingSender(settings(3), givenUp::incrementAndGet,
+                new PipelineMetrics())) {
+            SosOfferingProducer producer = createProducer(mock);
+            sender.send(producer, first, offsets.begin(partition, 5), null);
+            mock.errorNext(new RuntimeException("timeout"));
+            awaitSends(mock, 2);
+
+            sender.send(producer, second, offsets.begin(partition, 6), null);
+            Assert.assertThat(mock.history().size(), CoreMatchers.is(2));
+            Assert.assertThat(sender.getHeldSeries(), CoreMatchers.is(1));
+
+            mock.completeNext();
+            awaitSends(mock, 3);
+            mock.completeNext();
+            Assert.assertThat(sender.getHeldSeries(), CoreMatchers.is(0));
+        }
+
+        JsonMeasurementCodec codec = new JsonMeasurementCodec();
+        Assert.assertThat(mock.history().stream().map(r -> new String(r.value(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList()), CoreMatchers.equalTo(Arrays.asList(
+                        encode(codec, first), encode(codec, first), encode(codec, second))));
+        Assert.assertThat(offsets.getCommittable().get(partition).offset(), CoreMatchers.is(7L));
+        Assert.assertThat(givenUp.get(), CoreMatchers.is(0));
+    }
+
+    private static String encode(JsonMeasurementCodec codec, MeasurementObservation mo) throws IOException {
+        return new String(codec.encode(mo), StandardCharsets.UTF_8);
+    }
+
+    private static void awaitSends(MockProducer<Integer, byte[]> mock, int sends) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (mock.history().size() < sends && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(sends));
+    }
+
+    private static Settings settings(int attempts) {
+        Properties props = new Properties();
+        props.setProperty("producer.async", "true");
+        props.setProperty("producer.retryAttempts", Integer.toString(attempts));
+        props.setProperty("producer.retryBackoffMs", "1");
+        return new Settings(props);
+    }
+
+    private static SosOfferingProducer createProducer(MockProducer<Integer, byte[]> mock) {
+        Settings settings = settings(1);
+        SosOfferingProducer producer = new SosOfferingProducer(
+                new Offering("http://www.52north.org/test/offering/7", "test", 7), "localhost:9092", settings,
+                new PooledProducer(mock, 10000), new JsonMeasurementCodec());
+        producer.initialize(CompletableFuture.completedFuture(null));
+        return producer;
+    }
+
+    private static MeasurementObservation measurement() {
+        return measurement(1.0);
+    }
+
+    private static MeasurementObservation measurement(double value) {
+        return new MeasurementObservation("http://www.52north.org/test/procedure/1", null, null,
+                1353330000000000L, 1353330000000000L, 1353330000000000L, null, value,
+                new Series(1, 1, 1, 7, 1, 1));
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.codec.JsonMeasurementCodec;
+import org.n52.kafka.sos.metrics.PipelineMetrics;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Offering;
+import org.n52.kafka.sos.model.Series;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class SosOfferingProducerTest {
+
+    @Test
+    public void testMeasurementsAwaitTopic() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(true, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PooledProducer pooled = new PooledProducer(mock, 10000);
+        SosOfferingProducer producer = createProducer(pooled, new Settings(null));
+        CompletableFuture<Void> topicCreated = new CompletableFuture<>();
+        producer.initialize(topicCreated);
+
+        producer.newMeasurement(measurement(1));
+        producer.newMeasurement(measurement(2));
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(0));
+        Assert.assertThat(producer.getAwaitingTopic(), CoreMatchers.is(2));
+
+        topicCreated.complete(null);
+        producer.newMeasurement(measurement(3));
+        Assert.assertThat(producer.getAwaitingTopic(), CoreMatchers.is(0));
+        Assert.assertThat(mock.history().stream().map(ProducerRecord::key).collect(Collectors.toList()),
+                CoreMatchers.equalTo(Arrays.asList(1, 2, 3)));
+        Assert.assertThat(mock.history().get(0).topic(), CoreMatchers.equalTo("sos.offerings.7"));
+        Assert.assertThat(pooled.getAcknowledged(), CoreMatchers.is(3L));
+    }
+
+    @Test
+    public void testQueuedMeasurementsAreSentWithoutAwaitingAcknowledgement() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PooledProducer pooled = new PooledProducer(mock, 10000);
+        SosOfferingProducer producer = createProducer(pooled, new Settings(null));
+        CompletableFuture<Void> topicCreated = new CompletableFuture<>();
+        producer.initialize(topicCreated);
+
+        producer.newMeasurement(measurement(1));
+        producer.newMeasurement(measurement(2));
+        topicCreated.complete(null);
+
+        Assert.assertThat(producer.getAwaitingTopic(), CoreMatchers.is(0));
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(2));
+        Assert.assertThat(pooled.getInFlight(), CoreMatchers.is(2L));
+        mock.completeNext();
+        mock.completeNext();
+        Assert.assertThat(pooled.getAcknowledged(), CoreMatchers.is(2L));
+    }
+
+    @Test
+    public void testTopicFailureFailsQueuedMeasurements() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(true, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PooledProducer pooled = new PooledProducer(mock, 10000);
+        SosOfferingProducer producer = createProducer(pooled, new Settings(null));
+        CompletableFuture<Void> topicCreated = new CompletableFuture<>();
+        producer.initialize(topicCreated);
+
+        AtomicInteger failures = new AtomicInteger();
+        producer.newMeasurement(measurement(1), (meta, e) -> {
+            if (e != null) {
+                failures.incrementAndGet();
+            }
+        });
+        topicCreated.completeExceptionally(new IOException("no broker"));
+
+        Assert.assertThat(failures.get(), CoreMatchers.is(1));
+        Assert.assertThat(pooled.getSent(), CoreMatchers.is(0L));
+        Assert.assertThat(pooled.getInFlight(), CoreMatchers.is(0L));
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(0));
+        try {
+            producer.newMeasurement(measurement(2));
+            Assert.fail("expected the measurement to be rejected");
+        } catch (IOException e) {
+            Assert.assertThat(e.getMessage(), CoreMatchers.containsString("Topic could not be created"));
+        }
+    }
+
+    @Test
+    public void testTopicIsRequestedAgainAfterFailure() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(true, new IntegerSerializer(),
+                new ByteArraySerializer());
+        Properties props = new Properties();
+        props.setProperty("producer.topicRetryBackoffMs", "0");
+        SosOfferingProducer producer = createProducer(new PooledProducer(mock, 10000), new Settings(props));
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("no broker"));
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        Iterator<CompletableFuture<Void>> requests = Arrays.asList(failed, created).iterator();
+        producer.initialize(requests::next, Runnable::run);
+
+        producer.newMeasurement(measurement(1));
+        Assert.assertThat(requests.hasNext(), CoreMatchers.is(false));
+        Assert.assertThat(producer.getAwaitingTopic(), CoreMatchers.is(1));
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(0));
+
+        created.complete(null);
+        producer.newMeasurement(measurement(2));
+        Assert.assertThat(mock.history().stream().map(ProducerRecord::key).collect(Collectors.toList()),
+                CoreMatchers.equalTo(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testWindowIsSharedAndDoesNotBlock() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PooledProducer pooled = new PooledProducer(mock, 4);
+        Properties props = new Properties();
+        props.setProperty("producer.async", "true");
+        SosOfferingProducer first = createProducer(pooled, new Settings(props));
+        SosOfferingProducer second = first.withProducer(pooled);
+        first.initialize(CompletableFuture.completedFuture(null));
+
+        for (int i = 1; i <= 3; i++) {
+            first.newMeasurement(measurement(i));
+            second.newMeasurement(measurement(i));
+        }
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(6));
+        Assert.assertThat(pooled.getInFlight(), CoreMatchers.is(6L));
+        Assert.assertThat(pooled.isSaturated(), CoreMatchers.is(true));
+
+        for (int i = 0; i < 4; i++) {
+            mock.completeNext();
+        }
+        mock.errorNext(new RuntimeException("timeout"));
+        Assert.assertThat(pooled.isSaturated(), CoreMatchers.is(false));
+        Assert.assertThat(pooled.isDrained(), CoreMatchers.is(true));
+        Assert.assertThat(pooled.getAcknowledged(), CoreMatchers.is(4L));
+        Assert.assertThat(pooled.getFailed(), CoreMatchers.is(1L));
+    }
+
+    @Test
+    public void testAsyncCopyOfSyncProducer() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PooledProducer pooled = new PooledProducer(mock, 10000);
+        SosOfferingProducer live = createProducer(pooled, new Settings(null));
+        live.initialize(CompletableFuture.completedFuture(null));
+        SosOfferingProducer backfill = live.withProducer(pooled, true);
+
+        AtomicInteger acknowledged = new AtomicInteger();
+        for (int i = 1; i <= 3; i++) {
+            backfill.newMeasurement(measurement(i), (meta, e) -> acknowledged.incrementAndGet());
+        }
+        Assert.assertThat(mock.history().size(), CoreMatchers.is(3));
+        Assert.assertThat(acknowledged.get(), CoreMatchers.is(0));
+        mock.flush();
+        Assert.assertThat(acknowledged.get(), CoreMatchers.is(3));
+    }
+
+    @Test
+    public void testMetricsPerOfferingWithSharedProducer() throws IOException {
+        MockProducer<Integer, byte[]> mock = new MockProducer<>(false, new IntegerSerializer(),
+                new ByteArraySerializer());
+        PipelineMetrics metrics = new PipelineMetrics();
+        PooledProducer pooled = new PooledProducer(mock, 10000, metrics, "producer.0");
+        Properties props = new Properties();
+        props.setProperty("producer.async", "true");
+        SosOfferingProducer seven = new SosOfferingProducer(
+                new Offering("http://www.52north.org/test/offering/7", "test", 7), "localhost:9092",
+                new Settings(props), pooled, new JsonMeasurementCodec(), metrics);
+        SosOfferingProducer eight = new SosOfferingProducer(
+                new Offering("http://www.52north.org/test/offering/8", "test", 8), "localhost:9092",
+                new Settings(props), pooled, new JsonMeasurementCodec(), metrics);
+        seven.initialize(CompletableFuture.completedFuture(null));
+        eight.initialize(CompletableFuture.completedFuture(null));
+
+        seven.newMeasurement(measurement(1));
+        eight.newMeasurement(measurement(2));
+        mock.completeNext();
+        mock.errorNext(new RuntimeException("timeout"));
+
+        Assert.assertThat(metrics.histogram("offering.7.sendLatencyNanos").getCount(), CoreMatchers.is(1L));
+        Assert.assertThat(metrics.counter("offering.7.errors").getCount(), CoreMatchers.is(0L));
+        Assert.assertThat(metrics.histogram("offering.8.sendLatencyNanos").getCount(), CoreMatchers.is(1L));
+        Assert.assertThat(metrics.counter("offering.8.errors").getCount(), CoreMatchers.is(1L));
+        Assert.assertThat(metrics.counter("producer.0.errors").getCount(), CoreMatchers.is(1L));
+    }
+
+    private static SosOfferingProducer createProducer(PooledProducer pooled, Settings settings) {
+        return new SosOfferingProducer(new Offering("http://www.52north.org/test/offering/7", "test", 7),
+                "localhost:9092", settings, pooled, new JsonMeasurementCodec());
+    }
+
+    private static MeasurementObservation measurement(int seriesId) {
+        return new MeasurementObservation("http://www.52north.org/test/procedure/1", null, null,
+                1353330000000000L, 1353330000000000L, 1353330000000000L, null, 1.0,
+                new Series(1, 1, 1, 7, 1, seriesId));
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class StripedExecutorTest {
+
+    @Test
+    public void testBoundedStripeBlocksSubmitter() throws InterruptedException {
+        StripedExecutor executor = new StripedExecutor("test", 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+
+        executor.execute(1, () -> {
+            running.countDown();
+            await(release);
+            done.countDown();
+        });
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.execute(2, done::countDown);
+        Assert.assertThat(executor.getMaxQueueDepth(), CoreMatchers.is(1));
+
+        Thread submitter = new Thread(() -> executor.execute(3, done::countDown));
+        submitter.start();
+        submitter.join(200);
+        Assert.assertTrue(submitter.isAlive());
+        Assert.assertThat(executor.getBlockedSubmissions(), CoreMatchers.is(1L));
+
+        release.countDown();
+        submitter.join(5000);
+        Assert.assertFalse(submitter.isAlive());
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertThat(executor.getMaxQueueDepth(), CoreMatchers.is(0));
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTasksOfAKeyRunInOrder() throws InterruptedException {
+        StripedExecutor executor = new StripedExecutor("test", 4, 100);
+        List<Integer> even = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> odd = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 200; i++) {
+            int task = i;
+            executor.execute(i % 2, () -> (task % 2 == 0 ? even : odd).add(task));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertThat(even, CoreMatchers.equalTo(
+                IntStream.range(0, 100).map(i -> i * 2).boxed().collect(Collectors.toList())));
+        Assert.assertThat(odd, CoreMatchers.equalTo(
+                IntStream.range(0, 100).map(i -> i * 2 + 1).boxed().collect(Collectors.toList())));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
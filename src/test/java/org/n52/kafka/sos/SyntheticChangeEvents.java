@@ -0,0 +1,127 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds Debezium change events of the SOS tables with generated rows. The
+ * envelope including the schema is taken from the recorded test fixtures,
+ * only the <code>after</code> row is replaced, so that the events are as
+ * large as the ones published by the connector. As the rows are written
+ * by the <code>toJson</code> methods of the model, timestamp columns are
+ * declared with microsecond precision.
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class SyntheticChangeEvents {
+
+    private static final String AFTER_PLACEHOLDER = "__after__";
+    private static final String DEFAULT_PREFIX = "{\"payload\":{\"before\":null,\"after\":";
+    private static final String DEFAULT_SUFFIX = ",\"source\":{\"name\":\"sos\",\"snapshot\":null},\"op\":\"c\"}}";
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Map<String, Envelope> envelopes = new HashMap<>();
+
+    public SyntheticChangeEvents() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        register(mapper, KafkaSosConsumer.OBSERVATION_TABLE, "/observation1.json");
+        register(mapper, KafkaSosConsumer.SERIES_TABLE, "/series1.json");
+        register(mapper, KafkaSosConsumer.PROCEDURE_TABLE, "/procedure1.json");
+        register(mapper, KafkaSosConsumer.OFFERING_TABLE, "/offering1.json");
+        register(mapper, KafkaSosConsumer.UNIT_TABLE, "/unit1.json");
+        register(mapper, KafkaSosConsumer.FEATUREOFINTEREST_TABLE, "/feature1.json");
+        register(mapper, KafkaSosConsumer.NUMERICVALUE_TABLE, "/value1.json");
+    }
+
+    private void register(ObjectMapper mapper, String table, String fixture) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(fixture)) {
+            ObjectNode event = (ObjectNode) mapper.readTree(in);
+            ((ObjectNode) event.get("payload")).put("after", AFTER_PLACEHOLDER);
+            String json = mapper.writeValueAsString(event)
+                    .replace("io.debezium.time.NanoTimestamp", "io.debezium.time.MicroTimestamp");
+            String placeholder = "\"" + AFTER_PLACEHOLDER + "\"";
+            int index = json.indexOf(placeholder);
+            envelopes.put(table, new Envelope(json.substring(0, index),
+                    json.substring(index + placeholder.length())));
+        }
+    }
+
+    /**
+     * @param table the table, e.g. {@link KafkaSosConsumer#OBSERVATION_TABLE}
+     * @return the topic the connector publishes the changes of the table to
+     */
+    public static String topic(String table) {
+        return KafkaSosConsumer.SOS_NAME + "." + table;
+    }
+
+    /**
+     * @param column the primary key column
+     * @param id the primary key
+     * @return the record key of a row
+     */
+    public byte[] key(String column, int id) {
+        return ("{\"payload\":{\"" + column + "\":" + id + "}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param <T> the row type
+     * @param table the table of the row. Tables without a recorded fixture
+     * get an envelope without schema
+     * @param row the row
+     * @param writer writes the row as JSON object, usually the <code>toJson</code> method of the model
+     * @return the encoded change event inserting the row
+     */
+    public <T> byte[] insert(String table, T row, ChangeEventSerde.RowWriter<T> writer) {
+        Envelope envelope = envelopes.getOrDefault(table, new Envelope(DEFAULT_PREFIX, DEFAULT_SUFFIX));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(envelope.prefix.length + envelope.suffix.length + 256);
+        try {
+            out.write(envelope.prefix);
+            try (JsonGenerator generator = factory.createGenerator(out)) {
+                generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+                writer.write(row, generator);
+            }
+            out.write(envelope.suffix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static class Envelope {
+
+        private final byte[] prefix;
+        private final byte[] suffix;
+
+        Envelope(String prefix, String suffix) {
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.codec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Properties;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.message.BinaryMessageDecoder;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.kafka.sos.Settings;
+import org.n52.kafka.sos.model.MeasurementObservation;
+import org.n52.kafka.sos.model.Procedure;
+import org.n52.kafka.sos.model.Series;
+import org.n52.kafka.sos.model.Unit;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class MeasurementCodecsTest {
+
+    private final Settings settings = new Settings(new Properties());
+
+    @Test
+    public void testJacksonCodecs() throws IOException {
+        MeasurementCodecs codecs = new MeasurementCodecs(settings);
+        MeasurementObservation mo = createMeasurement();
+
+        ObjectMapper jsonMapper = new ObjectMapper();
+        String expected = jsonMapper.readTree(codecs.forName("json").encode(mo)).toString();
+
+        for (ObjectMapper mapper : new ObjectMapper[]{new ObjectMapper(new SmileFactory()),
+                new ObjectMapper(new CBORFactory())}) {
+            String name = mapper.getFactory() instanceof SmileFactory ? "smile" : "cbor";
+            MeasurementCodec codec = codecs.forName(name);
+            /*
+             * every record has to be decodable on its own
+             */
+            codec.encode(mo);
+            JsonNode decoded = mapper.readTree(codec.encode(mo));
+            Assert.assertThat(decoded.toString(), CoreMatchers.equalTo(expected));
+        }
+    }
+
+    @Test
+    public void testAvroCodec() throws IOException {
+        AvroMeasurementCodec codec = (AvroMeasurementCodec) new MeasurementCodecs(settings).forName("avro");
+        MeasurementObservation mo = createMeasurement();
+
+        GenericRecord decoded = new BinaryMessageDecoder<GenericRecord>(GenericData.get(), codec.getSchema())
+                .decode(codec.encode(mo));
+        Assert.assertThat(decoded.get("procedure").toString(), CoreMatchers.equalTo("http://example.org/procedure/\"1\""));
+        Assert.assertThat(decoded.get("feature"), CoreMatchers.nullValue());
+        Assert.assertThat(decoded.get("resultTime"), CoreMatchers.equalTo(1353330000123456L));
+        Assert.assertThat(decoded.get("value"), CoreMatchers.equalTo(2.5));
+    }
+
+    @Test
+    public void testTimeFormats() throws IOException {
+        MeasurementObservation mo = createMeasurement();
+        ObjectMapper mapper = new ObjectMapper();
+        Assert.assertThat(mapper.readTree(new MeasurementCodecs(settings).forName("json").encode(mo))
+                .get("resultTime").asLong(), CoreMatchers.is(1353330000123L));
+
+        Properties props = new Properties();
+        props.setProperty("codec.timeFormat", "iso8601");
+        JsonNode iso = mapper.readTree(new MeasurementCodecs(new Settings(props)).forName("json").encode(mo));
+        Assert.assertThat(iso.get("resultTime").asText(), CoreMatchers.equalTo("2012-11-19T13:00:00.123456Z"));
+
+        for (long micros : new long[]{0, -1, 951782400000001L, -62135596800000000L, 253402300799999999L}) {
+            JsonNode node = mapper.readTree(new MeasurementCodecs(new Settings(props)).forName("json")
+                    .encode(new MeasurementObservation(null, null, null, micros, micros, micros, null, 1.0, null)));
+            Assert.assertThat(Instant.parse(node.get("resultTime").asText()),
+                    CoreMatchers.equalTo(Instant.EPOCH.plus(micros, ChronoUnit.MICROS)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws IOException {
+        new MeasurementCodecs(settings).forName("xml");
+    }
+
+    private MeasurementObservation createMeasurement() {
+        Series series = new Series(1, 1, 1, 1, 1, 1)
+                .enrich(new Unit("°C", 1), null, null, new Procedure("http://example.org/procedure/\"1\"", 1));
+        long time = 1353330000123456L;
+        return new MeasurementObservation("http://example.org/procedure/\"1\"", null, null, time, time, time,
+                "°C", 2.5, series);
+    }
+
+}
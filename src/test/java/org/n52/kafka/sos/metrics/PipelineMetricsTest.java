@@ -0,0 +1,67 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class PipelineMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        Assert.assertThat(histogram.get99thPercentile(), CoreMatchers.is(0L));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertThat(histogram.getCount(), CoreMatchers.is(1000L));
+        Assert.assertThat(histogram.getMax(), CoreMatchers.is(1000L));
+        Assert.assertThat(histogram.getMean(), CoreMatchers.is(500.5));
+
+        long median = histogram.get50thPercentile();
+        Assert.assertThat(median >= 500 && median < 1000, CoreMatchers.is(true));
+        Assert.assertThat(histogram.get999thPercentile(), CoreMatchers.is(1000L));
+    }
+
+    @Test
+    public void testRegistry() throws JMException {
+        PipelineMetrics metrics = new PipelineMetrics(true);
+        metrics.counter("test.counter").add(3);
+        metrics.gauge("test.gauge", () -> 7);
+        metrics.histogram("test.timeNanos").record(12);
+
+        Assert.assertThat(metrics.counter("test.counter").getCount(), CoreMatchers.is(3L));
+        Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("org.n52.kafka.sos:type=Counter,name=" + ObjectName.quote("test.counter")), "Count");
+        Assert.assertThat(count, CoreMatchers.is(3L));
+
+        String text = metrics.toText();
+        Assert.assertThat(text, CoreMatchers.containsString("test_counter 3\n"));
+        Assert.assertThat(text, CoreMatchers.containsString("test_gauge 7\n"));
+        Assert.assertThat(text, CoreMatchers.containsString("test_timeNanos_count 1\n"));
+    }
+
+}
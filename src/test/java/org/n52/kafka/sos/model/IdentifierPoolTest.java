@@ -0,0 +1,56 @@
+/**
+ * Copyright 2017-2017 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.kafka.sos.model;
+
+import java.nio.charset.StandardCharsets;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
+ */
+public class IdentifierPoolTest {
+
+    @Test
+    public void testInterning() {
+        Procedure first = new Procedure(new String("http://www.52north.org/test/procedure/1"), 1);
+        Procedure update = new Procedure(new String("http://www.52north.org/test/procedure/1"), 1);
+
+        Assert.assertThat(update.getEncodedIdentifier(), CoreMatchers.sameInstance(first.getEncodedIdentifier()));
+        Assert.assertThat(update.getIdentifier(), CoreMatchers.equalTo("http://www.52north.org/test/procedure/1"));
+        Assert.assertThat(IdentifierPool.intern(null), CoreMatchers.nullValue());
+    }
+
+    @Test
+    public void testEncodedForms() {
+        Identifier plain = IdentifierPool.intern("http://www.52north.org/test/unit/°C");
+        Assert.assertThat(plain.asQuotedUTF8(), CoreMatchers.sameInstance(plain.asUnquotedUTF8()));
+        Assert.assertThat(new String(plain.asUnquotedUTF8(), StandardCharsets.UTF_8),
+                CoreMatchers.equalTo("http://www.52north.org/test/unit/°C"));
+        Assert.assertThat(plain.charLength(), CoreMatchers.is(35));
+
+        Identifier escaped = IdentifierPool.intern("http://example.org/procedure/\"1\"");
+        Assert.assertThat(new String(escaped.asQuotedUTF8(), StandardCharsets.UTF_8),
+                CoreMatchers.equalTo("http://example.org/procedure/\\\"1\\\""));
+        Assert.assertThat(new String(escaped.asQuotedChars()),
+                CoreMatchers.equalTo("http://example.org/procedure/\\\"1\\\""));
+        Assert.assertThat(escaped.getValue(), CoreMatchers.equalTo("http://example.org/procedure/\"1\""));
+    }
+
+}